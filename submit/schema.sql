@@ -8,7 +8,8 @@ create table users (
     followers  integer default 0         check (followers >= 0),
     following  integer default 0         check (following >= 0),
     password   varchar(255),
-    isdeleted  boolean default false
+    isdeleted  boolean default false,
+    purgepending boolean not null default false
 );
 
 -- Recipes table
@@ -34,9 +35,20 @@ create table recipes (
     sugarcontent        numeric(10, 2),
     proteincontent      numeric(10, 2),
     recipeservings      varchar(100),
-    recipeyield         varchar(100)
+    recipeyield         varchar(100),
+    isdeleted           boolean not null default false,
+    cooktimesec         numeric,
+    preptimesec         numeric,
+    totaltimesec        numeric,
+    ingredientcount     integer not null default 0,
+    ratingsum           bigint  not null default 0,
+    ratingcount         integer not null default 0,
+    reviewrows          integer not null default 0
 );
 
+-- Foreign keys into recipes and reviews (reviews, recipe_ingredients, review_likes) are declared
+-- NO ACTION here. The ON DELETE CASCADE variant is runner-only: DatabaseServiceImpl creates it when
+-- sustc.schema.cascade-delete=true. The purge reads the actual rule from pg_constraint, so either works.
 -- Reviews table
 -- IMPORTANT: Added GENERATED BY DEFAULT AS IDENTITY for auto-increment support
 create table reviews (
@@ -46,14 +58,21 @@ create table reviews (
     rating        integer,
     review        text,
     datesubmitted timestamp,
-    datemodified  timestamp
+    datemodified  timestamp,
+    likecount     integer not null default 0
+);
+
+-- Ingredients dictionary
+create table ingredients (
+    ingredientid integer generated by default as identity primary key,
+    name         varchar(500) not null unique
 );
 
 -- Recipe Ingredients table
 create table recipe_ingredients (
-    recipeid       bigint       not null         references recipes(recipeid),
-    ingredientpart varchar(500) not null,
-    primary key (recipeid, ingredientpart)
+    recipeid     bigint  not null         references recipes(recipeid),
+    ingredientid integer not null         references ingredients(ingredientid),
+    primary key (recipeid, ingredientid)
 );
 
 -- Review Likes table
@@ -82,3 +101,14 @@ CREATE INDEX idx_recipes_category ON recipes(recipecategory);
 CREATE INDEX idx_recipes_rating ON recipes(aggregatedrating);
 CREATE INDEX idx_recipes_date ON recipes(datepublished);
 CREATE INDEX idx_recipes_calories ON recipes(calories);
+CREATE INDEX idx_recipes_total_time ON recipes(totaltimesec, recipeid) WHERE NOT isdeleted;
+CREATE INDEX idx_recipes_ingredient_count ON recipes(ingredientcount DESC, recipeid ASC) WHERE NOT isdeleted;
+CREATE INDEX idx_recipes_rating_keyset ON recipes(aggregatedrating DESC, recipeid DESC) WHERE NOT isdeleted;
+CREATE INDEX idx_recipes_date_keyset ON recipes(datepublished DESC, recipeid DESC) WHERE NOT isdeleted;
+CREATE INDEX idx_recipes_calories_keyset ON recipes(calories ASC, recipeid DESC) WHERE NOT isdeleted;
+CREATE INDEX idx_reviews_recipe_likes ON reviews(recipeid, likecount DESC, datemodified DESC, reviewid);
+CREATE INDEX idx_reviews_recipe_date ON reviews(recipeid, datemodified DESC, reviewid);
+
+-- Tombstones waiting for the background purge
+CREATE INDEX idx_recipes_tombstone ON recipes(recipeid) WHERE isdeleted;
+CREATE INDEX idx_users_purge_pending ON users(authorid) WHERE purgepending;
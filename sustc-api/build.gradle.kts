@@ -17,6 +17,9 @@ dependencies {
 
     implementation("org.furyio:fury-core:0.3.1")
 
+    // 按食材检索：每种食材一个压缩位图
+    implementation("org.roaringbitmap:RoaringBitmap:0.9.49")
+
     // You may add any utility library you want to use, such as guava.
     // ORM libraries are prohibited in this project.
 }
@@ -0,0 +1,31 @@
+package io.sustc.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.io.Serializable;
+import java.util.List;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class CursorPageResult<T> implements Serializable {
+
+    /**
+     * List of items contained in the current page.
+     */
+    private List<T> items;
+
+    /**
+     * Maximum number of items per page.
+     */
+    private int size;
+
+    /**
+     * Opaque continuation token to request the following page, or {@code null} if this is the last page.
+     */
+    private String nextCursor;
+}
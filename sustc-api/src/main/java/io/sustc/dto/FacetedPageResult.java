@@ -0,0 +1,34 @@
+package io.sustc.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.io.Serializable;
+import java.util.Map;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class FacetedPageResult<T> implements Serializable {
+
+    /**
+     * The requested page of the search result.
+     */
+    private PageResult<T> page;
+
+    /**
+     * Number of matching records per category, in descending order of count.
+     * Records without a category are not listed.
+     */
+    private Map<String, Long> categoryCounts;
+
+    /**
+     * Number of matching records per rating bucket, in ascending order of bucket.
+     * Bucket {@code b} holds ratings in {@code [b, b + 1)}, bucket {@code 5} holds the rating {@code 5.0}.
+     * Records without a rating are not listed.
+     */
+    private Map<Integer, Long> ratingCounts;
+}
@@ -0,0 +1,33 @@
+package io.sustc.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.io.Serializable;
+
+/**
+ * One review of a batch submitted with {@code ReviewService.addReviews}.
+ */
+@Builder
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ReviewSubmission implements Serializable {
+
+    /**
+     * ID of the recipe being reviewed.
+     */
+    private long recipeId;
+
+    /**
+     * Rating between 1 and 5.
+     */
+    private int rating;
+
+    /**
+     * Textual review content.
+     */
+    private String review;
+}
@@ -0,0 +1,44 @@
+package io.sustc.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.io.Serializable;
+
+/**
+ * Outcome of one {@link ReviewSubmission} of a batch.
+ */
+@Builder
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ReviewSubmissionResult implements Serializable {
+
+    /**
+     * Whether the review was created, or why not.
+     */
+    private Status status;
+
+    /**
+     * ID of the created review, {@code 0} if it was not created.
+     */
+    private long reviewId;
+
+    public enum Status {
+        CREATED,
+        /**
+         * The entry itself is {@code null}.
+         */
+        INVALID_ENTRY,
+        /**
+         * The recipe does not exist or is deleted.
+         */
+        RECIPE_NOT_FOUND,
+        /**
+         * The rating is outside {@code [1, 5]}.
+         */
+        INVALID_RATING,
+    }
+}
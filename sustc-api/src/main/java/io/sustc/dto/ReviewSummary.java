@@ -0,0 +1,70 @@
+package io.sustc.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.io.Serializable;
+import java.sql.Timestamp;
+
+/**
+ * Lightweight projection of a review for list views: the like count instead of the
+ * likers, and the beginning of the text instead of all of it.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class ReviewSummary implements Serializable {
+
+    /**
+     * The id of this review, unique
+     */
+    private long reviewId;
+
+    /**
+     * The id of the reviewed recipe
+     */
+    private long recipeId;
+
+    /**
+     * The id of this review's author
+     */
+    private long authorId;
+
+    /**
+     * The name of this review's author
+     */
+    private String authorName;
+
+    /**
+     * The score given to this recipe
+     */
+    private float rating;
+
+    /**
+     * At most the requested number of leading characters of the review content
+     */
+    private String preview;
+
+    /**
+     * Whether {@link #preview} is shorter than the review content
+     */
+    private boolean truncated;
+
+    /**
+     * Number of users who have given this review a like
+     */
+    private long likeCount;
+
+    /**
+     * The date of review submitted
+     */
+    private Timestamp dateSubmitted;
+
+    /**
+     * The date of review modified
+     */
+    private Timestamp dateModified;
+}
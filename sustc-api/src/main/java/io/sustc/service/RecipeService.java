@@ -1,6 +1,8 @@
 package io.sustc.service;
 
 import io.sustc.dto.AuthInfo;
+import io.sustc.dto.CursorPageResult;
+import io.sustc.dto.FacetedPageResult;
 import io.sustc.dto.PageResult;
 import io.sustc.dto.RecipeRecord;
 import org.springframework.lang.Nullable;
@@ -20,6 +22,15 @@ public interface RecipeService {
      */
     String getNameFromID(long id);
 
+    /**
+     * Multi-get variant of {@link #getNameFromID(long)}.
+     *
+     * @param ids the recipe ids
+     * @return the names in the same order as {@code ids}; positions of missing or {@code null} ids hold {@code null}
+     * @throws IllegalArgumentException if {@code ids} is {@code null}
+     */
+    List<String> getNamesFromIDs(List<Long> ids);
+
     /**
      * Retrieves a recipe by its ID.
      *
@@ -36,6 +47,19 @@ public interface RecipeService {
     RecipeRecord getRecipeById(long recipeId);
 
 
+    /**
+     * Retrieves several recipes at once, e.g. to render a list of feed items or reviews.
+     *
+     * <p>Each returned element is the same complete {@link RecipeRecord} that
+     * {@link #getRecipeById(long)} would return. The lookup costs a constant number of
+     * queries regardless of the number of ids.
+     *
+     * @param recipeIds the recipe ids, may contain duplicates
+     * @return the records in the same order as {@code recipeIds}; positions of missing or {@code null} ids hold {@code null}
+     * @throws IllegalArgumentException if {@code recipeIds} is {@code null}
+     */
+    List<RecipeRecord> getRecipesByIds(List<Long> recipeIds);
+
     /**
      * Searches recipes based on multiple optional criteria, supporting pagination and sorting.
      *
@@ -81,6 +105,92 @@ public interface RecipeService {
             String sort
     );
 
+    /**
+     * Searches recipes by the ingredients they use, e.g. "all of {garlic, onion, rice}" and
+     * "none of {peanuts}".
+     *
+     * <p>Ingredient names must match the stored ingredient parts exactly. An unknown name in
+     * {@code includeAll} matches no recipe; unknown names in {@code excludeAny} are ignored. The
+     * ingredient conditions are evaluated on per-ingredient bitmaps of recipe ids; the result is
+     * then filtered by {@code category} and {@code minRating} and sorted like {@link #searchRecipes}.
+     *
+     * @param includeAll ingredients every result must use (nullable or empty for no condition)
+     * @param excludeAny ingredients no result may use (nullable or empty for no condition)
+     * @param category   category filter (nullable)
+     * @param minRating  minimum rating filter (nullable)
+     * @param page       page number (1-based)
+     * @param size       page size
+     * @param sort       sorting criteria as in {@link #searchRecipes} (nullable)
+     * @return a {@link PageResult} containing complete recipe records
+     * @throws IllegalArgumentException if {@code page < 1} or {@code size <= 0}
+     */
+    PageResult<RecipeRecord> searchRecipesByIngredients(
+            @Nullable List<String> includeAll,
+            @Nullable List<String> excludeAny,
+            @Nullable String category,
+            @Nullable Double minRating,
+            Integer page,
+            Integer size,
+            @Nullable String sort
+    );
+
+    /**
+     * Same search as {@link #searchRecipes}, additionally returning facet counts over the
+     * whole filtered result (not only the requested page).
+     *
+     * <p>Facets:
+     * <ul>
+     *   <li>{@code categoryCounts}: number of matches per {@code RecipeCategory}, counted with every
+     *   filter except {@code category}, so the other categories remain visible once one is selected</li>
+     *   <li>{@code ratingCounts}: number of matches per integer rating bucket ({@code floor(AggregatedRating)})</li>
+     * </ul>
+     *
+     * <p>The facets and the total are computed in a single grouping query, so a page view costs
+     * one facet query plus the page query instead of one count query per facet value.
+     *
+     * @param keyword   fuzzy search term for name/description (nullable)
+     * @param category  category filter (nullable)
+     * @param minRating minimum rating filter (nullable)
+     * @param page      page number (1-based)
+     * @param size      page size
+     * @param sort      sorting criteria (nullable)
+     * @return the page together with the facet counts
+     * @throws IllegalArgumentException if {@code page < 1} or {@code size <= 0}
+     */
+    FacetedPageResult<RecipeRecord> searchRecipesWithFacets(
+            String keyword,
+            String category,
+            Double minRating,
+            Integer page,
+            Integer size,
+            String sort
+    );
+
+    /**
+     * Cursor-based variant of {@link #searchRecipes}, intended for walking the whole result set.
+     *
+     * <p>Filtering and sorting rules are the same as {@link #searchRecipes}. Instead of a page number,
+     * the caller passes the {@code nextCursor} of the previous page, so deep pages are reached
+     * without scanning and discarding the preceding rows.
+     *
+     * @param keyword   fuzzy search term for name/description (nullable)
+     * @param category  category filter (nullable)
+     * @param minRating minimum rating filter (nullable)
+     * @param cursor    continuation token of the previous page, or {@code null} for the first page
+     * @param size      page size
+     * @param sort      sorting criteria (nullable), must be the same for every page of a walk
+     * @return a {@link CursorPageResult} whose {@code nextCursor} is {@code null} on the last page
+     * @throws IllegalArgumentException if {@code size <= 0}, or the cursor is malformed or was issued for another sort
+     */
+    CursorPageResult<RecipeRecord> searchRecipesByCursor(
+            String keyword,
+            String category,
+            Double minRating,
+            @Nullable String cursor,
+            Integer size,
+            String sort
+    );
+
     /**
      * Creates a new recipe authored by the authenticated user.
      *
@@ -101,6 +211,22 @@ public interface RecipeService {
     long createRecipe(RecipeRecord dto, AuthInfo auth);
 
 
+    /**
+     * Creates many recipes authored by the same user, e.g. for partner imports.
+     *
+     * <p>The same rules as {@link #createRecipe} apply to every element. The user is
+     * authenticated once, ids are reserved in bulk, and recipes and ingredients are
+     * written in batches. The operation is atomic: if any element is invalid, nothing is created.
+     *
+     * @param dtos recipes to create
+     * @param auth authentication identity of the recipe creator
+     * @return the new recipe ids, in the same order as {@code dtos}
+     *
+     * @throws SecurityException if the user identity in {@code auth} is invalid or inactive
+     * @throws IllegalArgumentException if {@code dtos} is null, or any recipe name is null/empty
+     */
+    List<Long> createRecipes(List<RecipeRecord> dtos, AuthInfo auth);
+
     /**
      *
      * Permanently deletes a recipe by its ID.
@@ -160,6 +286,24 @@ public interface RecipeService {
      */
     void updateTimes(AuthInfo auth, long recipeId, @Nullable String cookTimeIso, @Nullable String prepTimeIso);
 
+    /**
+     * Lists recipes whose total time lies within the given bounds, e.g. everything under
+     * 30 minutes with {@code maxTotalTime = "PT30M"}.
+     *
+     * <p>Both bounds are inclusive ISO 8601 durations; a {@code null} bound is open. Recipes
+     * without a valid {@code TotalTime} never match. Results are ordered by total time ascending,
+     * then by recipe id ascending, and are complete {@link RecipeRecord}s.
+     *
+     * @param minTotalTime lower bound (nullable)
+     * @param maxTotalTime upper bound (nullable)
+     * @param page         page number (1-based)
+     * @param size         page size
+     * @return a {@link PageResult} containing the matching recipes
+     * @throws IllegalArgumentException if {@code page < 1}, {@code size <= 0} or a bound is not a valid duration
+     */
+    PageResult<RecipeRecord> searchRecipesByTotalTime(@Nullable String minTotalTime, @Nullable String maxTotalTime,
+                                                      Integer page, Integer size);
+
 
     /**
      * Finds the pair of recipes whose calorie values are closest to each other.
@@ -258,4 +402,17 @@ public interface RecipeService {
      */
     List<Map<String, Object>> getTop3MostComplexRecipesByIngredients();
 
+    /**
+     * Generalization of {@link #getTop3MostComplexRecipesByIngredients()} to the top {@code k}
+     * recipes, with the same counting, ordering and result format.
+     *
+     * <p>The ingredient count is stored per recipe and indexed, so each call reads only the
+     * first {@code k} index entries.
+     *
+     * @param k the maximum number of recipes to return
+     * @return a list of up to {@code k} maps describing the most ingredient-heavy recipes
+     * @throws IllegalArgumentException if {@code k <= 0}
+     */
+    List<Map<String, Object>> getTopKMostComplexRecipesByIngredients(int k);
+
 }
\ No newline at end of file
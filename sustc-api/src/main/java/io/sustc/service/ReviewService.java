@@ -1,9 +1,16 @@
 package io.sustc.service;
 
 import io.sustc.dto.AuthInfo;
+import io.sustc.dto.CursorPageResult;
 import io.sustc.dto.PageResult;
 import io.sustc.dto.RecipeRecord;
 import io.sustc.dto.ReviewRecord;
+import io.sustc.dto.ReviewSubmission;
+import io.sustc.dto.ReviewSubmissionResult;
+import io.sustc.dto.ReviewSummary;
+import org.springframework.lang.Nullable;
+
+import java.util.List;
 
 
 public interface ReviewService {
@@ -52,6 +59,21 @@ public interface ReviewService {
      */
     long addReview(AuthInfo auth, long recipeId, int rating, String review);
 
+    /**
+     * Adds several reviews by the same user at once, e.g. reviews queued offline.
+     *
+     * <p>Each entry is checked like {@link #addReview}, but an invalid entry does not fail the
+     * call: its result reports why it was skipped and the other entries are still added. The
+     * aggregated rating and review count of every affected recipe are updated once.</p>
+     *
+     * @param auth    authentication information of the user writing the reviews
+     * @param entries the reviews to add
+     * @return one result per entry, in the same order
+     * @throws IllegalArgumentException if {@code auth} is null or fails validation, or {@code entries} is null
+     * @throws SecurityException        if the user identity in {@code auth} is invalid or inactive
+     */
+    List<ReviewSubmissionResult> addReviews(AuthInfo auth, List<ReviewSubmission> entries);
+
     /**
      * Edits an existing review belonging to a given recipe.
      *
@@ -191,6 +213,43 @@ public interface ReviewService {
      */
     PageResult<ReviewRecord> listByRecipe(long recipeId, int page, int size, String sort);
 
+    /**
+     * Cursor-based variant of {@link #listByRecipe}, for paging deep into review-heavy recipes.
+     *
+     * <p>Sorting rules are the same as {@link #listByRecipe}. Instead of a page number, the caller
+     * passes the {@code nextCursor} of the previous page, so a deep page is read without scanning
+     * and discarding the preceding reviews.
+     *
+     * @param recipeId the ID of the recipe whose reviews are being listed
+     * @param cursor   continuation token of the previous page, or {@code null} for the first page
+     * @param size     the number of items per page
+     * @param sort     sorting option, must be the same for every page of a walk
+     * @return a {@link CursorPageResult} whose {@code nextCursor} is {@code null} on the last page
+     * @throws IllegalArgumentException if the recipe does not exist, {@code size <= 0}, or the cursor
+     *                                  is malformed or was issued for another sort
+     */
+    CursorPageResult<ReviewRecord> listByRecipeCursor(long recipeId, @Nullable String cursor, int size, String sort);
+
+    /**
+     * Same walk as {@link #listByRecipeCursor}, returning {@link ReviewSummary} previews: the like
+     * count instead of the likers and at most {@code previewLength} characters of the text.
+     *
+     * @param previewLength maximum number of characters of each review text to return
+     * @throws IllegalArgumentException as {@link #listByRecipeCursor}, or if {@code previewLength < 0}
+     */
+    CursorPageResult<ReviewSummary> listSummariesByRecipe(long recipeId, @Nullable String cursor, int size,
+                                                          String sort, int previewLength);
+
+    /**
+     * Returns the full text of a review, e.g. for a {@link ReviewSummary} whose preview was truncated.
+     *
+     * @param reviewId the ID of the review
+     * @return the review text, may be {@code null}
+     * @throws IllegalArgumentException if the review does not exist or its recipe was deleted
+     */
+    @Nullable
+    String getReviewText(long reviewId);
+
     /**
      * Recalculates and updates the {@code aggregated_rating} and {@code review_count}
      * fields for the specified recipe.
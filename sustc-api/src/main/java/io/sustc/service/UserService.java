@@ -154,6 +154,19 @@ public interface UserService {
      */
     UserRecord getById(long userId);
 
+    /**
+     * Multi-get variant of {@link #getById(long)}.
+     *
+     * <p>Each returned element carries the same fields as {@link #getById(long)}. The lookup
+     * costs a constant number of queries regardless of the number of ids.
+     *
+     * @param userIds the user ids, may contain duplicates
+     * @return the records in the same order as {@code userIds}; positions of missing,
+     *         deleted or {@code null} ids hold {@code null}
+     * @throws IllegalArgumentException if {@code userIds} is {@code null}
+     */
+    List<UserRecord> getByIds(List<Long> userIds);
+
 
     /**
      * Update profile information of a user (e.g., gender, age).
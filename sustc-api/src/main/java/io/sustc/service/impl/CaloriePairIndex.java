@@ -0,0 +1,196 @@
+package io.sustc.service.impl;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.math.BigDecimal;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Per-JVM index answering {@code getClosestCaloriePair} without sorting all recipes.
+ *
+ * <p>Active recipes with non-null calories are kept ordered by {@code (Calories, RecipeId)}, the same
+ * order the SQL window uses. Every pair of neighbours in that order is kept in a second ordered set
+ * keyed by {@code (difference, smaller id, larger id)}, so its first element is exactly the row the
+ * SQL {@code ORDER BY diff, RecipeA, RecipeB LIMIT 1} returns. Adding or removing a recipe replaces
+ * at most two neighbour pairs, i.e. O(log n).
+ *
+ * <p>The index is loaded on first use and dropped by {@link #reset()}. Changes made inside a
+ * transaction are applied after it commits; applying the same change twice is harmless, so a change
+ * that raced with the initial load still ends up correct.
+ */
+@Component
+public class CaloriePairIndex {
+
+    private static final Comparator<Point> POINT_ORDER =
+            Comparator.comparing((Point p) -> p.calories).thenComparingLong(p -> p.recipeId);
+
+    private static final Comparator<Pair> PAIR_ORDER =
+            Comparator.comparing((Pair p) -> p.diff).thenComparingLong(p -> p.recipeA).thenComparingLong(p -> p.recipeB);
+
+    @Autowired
+    @SuppressWarnings("SpringJavaInjectionPointsAutowiringInspection")
+    private JdbcTemplate jdbcTemplate;
+
+    private final boolean enabled;
+
+    private final TreeSet<Point> points = new TreeSet<>(POINT_ORDER);
+
+    private final TreeSet<Pair> pairs = new TreeSet<>(PAIR_ORDER);
+
+    private final Map<Long, Point> byId = new HashMap<>();
+
+    private boolean loaded;
+
+    public CaloriePairIndex(@Value("${sustc.cache.calorie-pair.enabled:true}") boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @return the map described by {@code RecipeService.getClosestCaloriePair()}, or {@code null} if
+     * fewer than two recipes have calories
+     */
+    public synchronized Map<String, Object> getClosestPair() {
+        if (!loaded) {
+            load();
+        }
+        if (pairs.isEmpty()) {
+            return null;
+        }
+        Pair best = pairs.first();
+        Map<String, Object> map = new HashMap<>();
+        map.put("RecipeA", best.recipeA);
+        map.put("RecipeB", best.recipeB);
+        map.put("CaloriesA", best.caloriesA.doubleValue());
+        map.put("CaloriesB", best.caloriesB.doubleValue());
+        map.put("Difference", best.diff.doubleValue());
+        return map;
+    }
+
+    /**
+     * Records a new recipe with its stored calories ({@code null} calories are ignored).
+     */
+    public void added(long recipeId, BigDecimal calories) {
+        if (enabled && calories != null) {
+            TransactionHooks.afterCommit(() -> insert(new Point(calories, recipeId)));
+        }
+    }
+
+    public void removed(long recipeId) {
+        if (enabled) {
+            TransactionHooks.afterCommit(() -> delete(recipeId));
+        }
+    }
+
+    /**
+     * Drops the index; it is reloaded on the next lookup.
+     */
+    public synchronized void reset() {
+        points.clear();
+        pairs.clear();
+        byId.clear();
+        loaded = false;
+    }
+
+    private void load() {
+        jdbcTemplate.query("SELECT RecipeId, Calories FROM recipes WHERE Calories IS NOT NULL AND NOT IsDeleted",
+                rs -> {
+                    Point p = new Point(rs.getBigDecimal(2), rs.getLong(1));
+                    points.add(p);
+                    byId.put(p.recipeId, p);
+                });
+        Point prev = null;
+        for (Point p : points) {
+            if (prev != null) {
+                pairs.add(new Pair(prev, p));
+            }
+            prev = p;
+        }
+        loaded = true;
+    }
+
+    private synchronized void insert(Point p) {
+        if (!loaded || byId.containsKey(p.recipeId)) {
+            return;
+        }
+        Point lower = points.lower(p);
+        Point higher = points.higher(p);
+        if (lower != null && higher != null) {
+            pairs.remove(new Pair(lower, higher));
+        }
+        if (lower != null) {
+            pairs.add(new Pair(lower, p));
+        }
+        if (higher != null) {
+            pairs.add(new Pair(p, higher));
+        }
+        points.add(p);
+        byId.put(p.recipeId, p);
+    }
+
+    private synchronized void delete(long recipeId) {
+        Point p = loaded ? byId.remove(recipeId) : null;
+        if (p == null) {
+            return;
+        }
+        points.remove(p);
+        Point lower = points.lower(p);
+        Point higher = points.higher(p);
+        if (lower != null) {
+            pairs.remove(new Pair(lower, p));
+        }
+        if (higher != null) {
+            pairs.remove(new Pair(p, higher));
+        }
+        if (lower != null && higher != null) {
+            pairs.add(new Pair(lower, higher));
+        }
+    }
+
+    private static final class Point {
+
+        final BigDecimal calories;
+
+        final long recipeId;
+
+        Point(BigDecimal calories, long recipeId) {
+            this.calories = calories;
+            this.recipeId = recipeId;
+        }
+    }
+
+    /**
+     * Two neighbours in {@code (Calories, RecipeId)} order, labelled like the SQL result:
+     * {@code A} is the one with the smaller id.
+     */
+    private static final class Pair {
+
+        final BigDecimal diff;
+
+        final long recipeA;
+
+        final long recipeB;
+
+        final BigDecimal caloriesA;
+
+        final BigDecimal caloriesB;
+
+        Pair(Point lower, Point upper) {
+            this.diff = upper.calories.subtract(lower.calories).abs();
+            boolean lowerFirst = lower.recipeId < upper.recipeId;
+            this.recipeA = lowerFirst ? lower.recipeId : upper.recipeId;
+            this.recipeB = lowerFirst ? upper.recipeId : lower.recipeId;
+            this.caloriesA = lowerFirst ? lower.calories : upper.calories;
+            this.caloriesB = lowerFirst ? upper.calories : lower.calories;
+        }
+    }
+}
@@ -6,7 +6,9 @@ import io.sustc.dto.ReviewRecord;
 import io.sustc.dto.UserRecord;
 import io.sustc.service.DatabaseService;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.InitializingBean;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.jdbc.core.BatchPreparedStatementSetter;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Service;
@@ -19,12 +21,15 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
 
 @Service
 @Slf4j
-public class DatabaseServiceImpl implements DatabaseService {
+public class DatabaseServiceImpl implements DatabaseService, InitializingBean {
 
     @Autowired
     @SuppressWarnings("SpringJavaInjectionPointsAutowiringInspection")
@@ -34,6 +39,63 @@ public class DatabaseServiceImpl implements DatabaseService {
     @SuppressWarnings("SpringJavaInjectionPointsAutowiringInspection")
     private JdbcTemplate jdbcTemplate;
 
+    @Autowired
+    private RecipeCache recipeCache;
+
+    @Autowired
+    private CaloriePairIndex caloriePairIndex;
+
+    @Autowired
+    private IngredientDictionary ingredientDictionary;
+
+    @Autowired
+    private IngredientBitmapIndex ingredientBitmapIndex;
+
+    @Autowired
+    private LikeBuffer likeBuffer;
+
+    @Autowired
+    private IdBlockAllocator idBlockAllocator;
+
+    @Autowired
+    private ReviewPageCache reviewPageCache;
+
+    @Autowired
+    private RecipeExistenceCache recipeExistenceCache;
+
+    @Autowired
+    private TombstoneReaper tombstoneReaper;
+
+    /**
+     * Declares the foreign keys pointing at recipes and reviews with {@code ON DELETE CASCADE},
+     * so deleting a recipe row removes its ingredients, reviews and likes.
+     */
+    @Value("${sustc.schema.cascade-delete:false}")
+    private boolean cascadeDelete;
+
+    /**
+     * Stores long review and description texts compactly and keeps a review preview next to the row,
+     * see {@link #applyCompactTextStorage()}.
+     */
+    @Value("${sustc.storage.compact-text.enabled:false}")
+    private boolean compactText;
+
+    /**
+     * Brings an existing database into compact-text mode when the mode is switched on, so the
+     * preview columns read by {@code ReviewServiceImpl} exist before the next import.
+     */
+    @Override
+    public void afterPropertiesSet() {
+        if (!compactText) {
+            return;
+        }
+        Boolean exists = jdbcTemplate.queryForObject(
+                "SELECT to_regclass('reviews') IS NOT NULL AND to_regclass('recipes') IS NOT NULL", Boolean.class);
+        if (Boolean.TRUE.equals(exists)) {
+            applyCompactTextStorage();
+        }
+    }
+
     @Override
     public List<Integer> getGroupMembers() {
         return Arrays.asList(12412103, 12411103);
@@ -51,6 +113,11 @@ public class DatabaseServiceImpl implements DatabaseService {
 
         log.info("Starting data import...");
         createTables();
+        tombstoneReaper.schemaChanged();
+        if (tombstoneReaper.isCascading() != cascadeDelete) {
+            log.warn("sustc.schema.cascade-delete is {} but the existing foreign keys say otherwise; " +
+                    "it only applies to newly created tables (drop the database to switch)", cascadeDelete);
+        }
         log.info("Tables created.");
         truncateTables();
         log.info("Tables truncated.");
@@ -66,15 +133,26 @@ public class DatabaseServiceImpl implements DatabaseService {
         resetRecipeIdSequence();
         log.info("Inserting recipe ingredients...");
         batchInsertRecipeIngredients(recipeRecords);
+        updateIngredientCounts();
 
         log.info("Inserting {} reviews...", reviewRecords.size());
         batchInsertReviews(reviewRecords);
+        updateRatingTotals();
 
         // 关键：导入历史 reviewid 后推进 Identity 序列到 MAX(reviewid)
         resetReviewIdSequence();
 
         log.info("Inserting review likes...");
         batchInsertReviewLikes(reviewRecords);
+        updateLikeCounts();
+
+        recipeCache.clear();
+        caloriePairIndex.reset();
+        ingredientBitmapIndex.reset();
+        likeBuffer.reset();
+        idBlockAllocator.reset();
+        reviewPageCache.clear();
+        recipeExistenceCache.reset();
 
         log.info("Imported {} users, {} recipes and {} reviews.",
                 userRecords.size(), recipeRecords.size(), reviewRecords.size());
@@ -151,7 +229,8 @@ public class DatabaseServiceImpl implements DatabaseService {
         String sql = "INSERT INTO recipes (RecipeId, Name, AuthorId, CookTime, PrepTime, TotalTime, DatePublished, " +
                 "Description, RecipeCategory, AggregatedRating, ReviewCount, Calories, FatContent, SaturatedFatContent, " +
                 "CholesterolContent, SodiumContent, CarbohydrateContent, FiberContent, SugarContent, ProteinContent, " +
-                "RecipeServings, RecipeYield) VALUES (?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?) " +
+                "RecipeServings, RecipeYield, CookTimeSec, PrepTimeSec, TotalTimeSec) " +
+                "VALUES (?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?) " +
                 "ON CONFLICT (RecipeId) DO UPDATE SET " +
                 "Name = EXCLUDED.Name, AuthorId = EXCLUDED.AuthorId, CookTime = EXCLUDED.CookTime, " +
                 "PrepTime = EXCLUDED.PrepTime, TotalTime = EXCLUDED.TotalTime, DatePublished = EXCLUDED.DatePublished, " +
@@ -162,7 +241,8 @@ public class DatabaseServiceImpl implements DatabaseService {
                 "SodiumContent = EXCLUDED.SodiumContent, CarbohydrateContent = EXCLUDED.CarbohydrateContent, " +
                 "FiberContent = EXCLUDED.FiberContent, SugarContent = EXCLUDED.SugarContent, " +
                 "ProteinContent = EXCLUDED.ProteinContent, RecipeServings = EXCLUDED.RecipeServings, " +
-                "RecipeYield = EXCLUDED.RecipeYield";
+                "RecipeYield = EXCLUDED.RecipeYield, CookTimeSec = EXCLUDED.CookTimeSec, " +
+                "PrepTimeSec = EXCLUDED.PrepTimeSec, TotalTimeSec = EXCLUDED.TotalTimeSec";
 
         int batchSize = 1000;
         for (int i = 0; i < recipes.size(); i += batchSize) {
@@ -193,6 +273,9 @@ public class DatabaseServiceImpl implements DatabaseService {
                     ps.setObject(20, recipe.getProteinContent());
                     ps.setString(21, String.valueOf(recipe.getRecipeServings()));
                     ps.setString(22, recipe.getRecipeYield());
+                    ps.setBigDecimal(23, IsoDurations.secondsOrNull(recipe.getCookTime()));
+                    ps.setBigDecimal(24, IsoDurations.secondsOrNull(recipe.getPrepTime()));
+                    ps.setBigDecimal(25, IsoDurations.secondsOrNull(recipe.getTotalTime()));
                 }
 
                 @Override
@@ -204,6 +287,23 @@ public class DatabaseServiceImpl implements DatabaseService {
     }
 
     private void batchInsertRecipeIngredients(List<RecipeRecord> recipes) {
+        Set<String> names = new HashSet<>();
+        for (RecipeRecord recipe : recipes) {
+            String[] parts = recipe.getRecipeIngredientParts();
+            if (parts == null) {
+                continue;
+            }
+            for (String part : parts) {
+                if (part != null && !part.isBlank()) {
+                    names.add(part);
+                }
+            }
+        }
+        if (names.isEmpty()) {
+            return;
+        }
+        Map<String, Integer> ids = ingredientDictionary.intern(names);
+
         List<Object[]> ingredients = new ArrayList<>();
         for (RecipeRecord recipe : recipes) {
             String[] parts = recipe.getRecipeIngredientParts();
@@ -214,22 +314,25 @@ public class DatabaseServiceImpl implements DatabaseService {
                 if (part == null || part.isBlank()) {
                     continue;
                 }
-                ingredients.add(new Object[]{recipe.getRecipeId(), part});
+                ingredients.add(new Object[]{recipe.getRecipeId(), ids.get(part)});
             }
         }
-        if (ingredients.isEmpty()) {
-            return;
-        }
 
         int batchSize = 1000;
         for (int i = 0; i < ingredients.size(); i += batchSize) {
             List<Object[]> batch = ingredients.subList(i, Math.min(i + batchSize, ingredients.size()));
             jdbcTemplate.batchUpdate(
-                    "INSERT INTO recipe_ingredients (RecipeId, IngredientPart) VALUES (?, ?) ON CONFLICT DO NOTHING",
+                    "INSERT INTO recipe_ingredients (RecipeId, IngredientId) VALUES (?, ?) ON CONFLICT DO NOTHING",
                     batch);
         }
     }
 
+    private void updateIngredientCounts() {
+        jdbcTemplate.update("UPDATE recipes r SET IngredientCount = c.cnt " +
+                "FROM (SELECT RecipeId, COUNT(*) AS cnt FROM recipe_ingredients GROUP BY RecipeId) c " +
+                "WHERE r.RecipeId = c.RecipeId");
+    }
+
     private void batchInsertReviews(List<ReviewRecord> reviews) {
         if (reviews.isEmpty()) {
             return;
@@ -290,11 +393,30 @@ public class DatabaseServiceImpl implements DatabaseService {
         }
     }
 
+    /**
+     * Fills the running rating totals from the imported reviews. The imported
+     * {@code AggregatedRating} and {@code ReviewCount} are kept as they are.
+     */
+    private void updateRatingTotals() {
+        jdbcTemplate.update("UPDATE recipes r SET RatingSum = c.total, RatingCount = c.rated, ReviewRows = c.cnt " +
+                "FROM (SELECT RecipeId, COALESCE(SUM(Rating), 0) AS total, COUNT(Rating) AS rated, COUNT(*) AS cnt " +
+                "FROM reviews GROUP BY RecipeId) c " +
+                "WHERE r.RecipeId = c.RecipeId");
+    }
+
+    private void updateLikeCounts() {
+        jdbcTemplate.update("UPDATE reviews rv SET LikeCount = c.cnt " +
+                "FROM (SELECT ReviewId, COUNT(*) AS cnt FROM review_likes GROUP BY ReviewId) c " +
+                "WHERE rv.ReviewId = c.ReviewId");
+    }
+
     private void truncateTables() {
-        jdbcTemplate.execute("TRUNCATE TABLE review_likes, reviews, recipe_ingredients, recipes, user_follows, users RESTART IDENTITY CASCADE");
+        jdbcTemplate.execute("TRUNCATE TABLE review_likes, reviews, recipe_ingredients, ingredients, recipes, user_follows, users RESTART IDENTITY CASCADE");
+        ingredientDictionary.clear();
     }
 
     private void createTables() {
+        String cascade = cascadeDelete ? " ON DELETE CASCADE" : "";
         String[] createTableSQLs = {
                 "CREATE TABLE IF NOT EXISTS users (" +
                         "    AuthorId BIGINT GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY, " +
@@ -304,7 +426,8 @@ public class DatabaseServiceImpl implements DatabaseService {
                         "    Followers INTEGER DEFAULT 0 CHECK (Followers >= 0), " +
                         "    Following INTEGER DEFAULT 0 CHECK (Following >= 0), " +
                         "    Password VARCHAR(255), " +
-                        "    IsDeleted BOOLEAN DEFAULT FALSE" +
+                        "    IsDeleted BOOLEAN DEFAULT FALSE, " +
+                        "    PurgePending BOOLEAN NOT NULL DEFAULT FALSE" +
                         ")",
                 "CREATE TABLE IF NOT EXISTS recipes (" +
                         "    RecipeId BIGINT GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY, " +
@@ -329,6 +452,15 @@ public class DatabaseServiceImpl implements DatabaseService {
                         "    ProteinContent DECIMAL(10,2), " +
                         "    RecipeServings VARCHAR(100), " +
                         "    RecipeYield VARCHAR(100), " +
+                        "    IsDeleted BOOLEAN NOT NULL DEFAULT FALSE, " +
+                        "    CookTimeSec NUMERIC, " +
+                        "    PrepTimeSec NUMERIC, " +
+                        "    TotalTimeSec NUMERIC, " +
+                        "    IngredientCount INTEGER NOT NULL DEFAULT 0, " +
+                        // 评分增量维护：评分之和、非空评分数、评论行数
+                        "    RatingSum BIGINT NOT NULL DEFAULT 0, " +
+                        "    RatingCount INTEGER NOT NULL DEFAULT 0, " +
+                        "    ReviewRows INTEGER NOT NULL DEFAULT 0, " +
                         "    FOREIGN KEY (AuthorId) REFERENCES users(AuthorId)" +
                         ")",
                 // 关键：ReviewId 使用 Identity，支持 DEFAULT 自增与显式插入
@@ -340,20 +472,25 @@ public class DatabaseServiceImpl implements DatabaseService {
                         "    Review TEXT, " +
                         "    DateSubmitted TIMESTAMP NOT NULL DEFAULT now(), " +
                         "    DateModified TIMESTAMP NOT NULL DEFAULT now(), " +
-                        "    FOREIGN KEY (RecipeId) REFERENCES recipes(RecipeId), " +
+                        "    LikeCount INTEGER NOT NULL DEFAULT 0, " +
+                        "    FOREIGN KEY (RecipeId) REFERENCES recipes(RecipeId)" + cascade + ", " +
                         "    FOREIGN KEY (AuthorId) REFERENCES users(AuthorId)" +
                         ")",
+                "CREATE TABLE IF NOT EXISTS ingredients (" +
+                        "    IngredientId INTEGER GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY, " +
+                        "    Name VARCHAR(500) NOT NULL UNIQUE" +
+                        ")",
                 "CREATE TABLE IF NOT EXISTS recipe_ingredients (" +
                         "    RecipeId BIGINT, " +
-                        "    IngredientPart VARCHAR(500), " +
-                        "    PRIMARY KEY (RecipeId, IngredientPart), " +
-                        "    FOREIGN KEY (RecipeId) REFERENCES recipes(RecipeId)" +
+                        "    IngredientId INTEGER REFERENCES ingredients(IngredientId), " +
+                        "    PRIMARY KEY (RecipeId, IngredientId), " +
+                        "    FOREIGN KEY (RecipeId) REFERENCES recipes(RecipeId)" + cascade +
                         ")",
                 "CREATE TABLE IF NOT EXISTS review_likes (" +
                         "    ReviewId BIGINT, " +
                         "    AuthorId BIGINT, " +
                         "    PRIMARY KEY (ReviewId, AuthorId), " +
-                        "    FOREIGN KEY (ReviewId) REFERENCES reviews(ReviewId), " +
+                        "    FOREIGN KEY (ReviewId) REFERENCES reviews(ReviewId)" + cascade + ", " +
                         "    FOREIGN KEY (AuthorId) REFERENCES users(AuthorId)" +
                         ")",
                 "CREATE TABLE IF NOT EXISTS user_follows (" +
@@ -363,11 +500,75 @@ public class DatabaseServiceImpl implements DatabaseService {
                         "    FOREIGN KEY (FollowerId) REFERENCES users(AuthorId), " +
                         "    FOREIGN KEY (FollowingId) REFERENCES users(AuthorId), " +
                         "    CHECK (FollowerId != FollowingId)" +
-                        ")"
+                        ")",
+                // 墓碑：只索引待清理的行，供后台清理线程扫描
+                "CREATE INDEX IF NOT EXISTS idx_recipes_tombstone ON recipes (RecipeId) WHERE IsDeleted",
+                "CREATE INDEX IF NOT EXISTS idx_users_purge_pending ON users (AuthorId) WHERE PurgePending",
+                "CREATE INDEX IF NOT EXISTS idx_recipes_total_time ON recipes (TotalTimeSec, RecipeId) WHERE NOT IsDeleted",
+                "CREATE INDEX IF NOT EXISTS idx_recipes_ingredient_count ON recipes (IngredientCount DESC, RecipeId ASC) WHERE NOT IsDeleted",
+                // 游标分页：与 RecipeSort 的排序完全一致，深页直接从游标位置开始扫描
+                "CREATE INDEX IF NOT EXISTS idx_recipes_rating_keyset ON recipes (AggregatedRating DESC, RecipeId DESC) WHERE NOT IsDeleted",
+                "CREATE INDEX IF NOT EXISTS idx_recipes_date_keyset ON recipes (DatePublished DESC, RecipeId DESC) WHERE NOT IsDeleted",
+                "CREATE INDEX IF NOT EXISTS idx_recipes_calories_keyset ON recipes (Calories ASC, RecipeId DESC) WHERE NOT IsDeleted",
+                // likes_desc 排序按索引顺序读取
+                "CREATE INDEX IF NOT EXISTS idx_reviews_recipe_likes ON reviews (RecipeId, LikeCount DESC, DateModified DESC, ReviewId)",
+                "CREATE INDEX IF NOT EXISTS idx_reviews_recipe_date ON reviews (RecipeId, DateModified DESC, ReviewId)"
         };
         for (String sql : createTableSQLs) {
             jdbcTemplate.execute(sql);
         }
+        if (compactText) {
+            applyCompactTextStorage();
+        }
+    }
+
+    /**
+     * Adds the stored {@code ReviewPreview} and {@code ReviewLength} columns used for review previews,
+     * and moves long texts out of the rows early ({@code toast_tuple_target}), so scans over reviews
+     * do not drag the full text along. If the server supports lz4 (PostgreSQL 14+ built with lz4), the
+     * full texts are compressed with it, which decompresses much faster than the default pglz.
+     *
+     * <p>Applied on startup and by every import, but each step is skipped when the catalog shows it is
+     * already in place: adding the generated columns rewrites {@code reviews}.
+     */
+    private void applyCompactTextStorage() {
+        List<String> previewColumns = jdbcTemplate.queryForList("SELECT column_name FROM information_schema.columns " +
+                "WHERE table_schema = current_schema() AND table_name = 'reviews' " +
+                "AND column_name IN ('reviewpreview', 'reviewlength')", String.class);
+        if (previewColumns.size() < 2) {
+            log.info("Adding review preview columns, this rewrites the reviews table once");
+            jdbcTemplate.execute("ALTER TABLE reviews ADD COLUMN IF NOT EXISTS ReviewPreview TEXT " +
+                    "GENERATED ALWAYS AS (left(Review, " + ReviewServiceImpl.STORED_PREVIEW_LENGTH + ")) STORED");
+            jdbcTemplate.execute("ALTER TABLE reviews ADD COLUMN IF NOT EXISTS ReviewLength INTEGER " +
+                    "GENERATED ALWAYS AS (char_length(Review)) STORED");
+        }
+        List<String> untuned = jdbcTemplate.queryForList("SELECT relname::text FROM pg_class " +
+                "WHERE oid IN ('reviews'::regclass, 'recipes'::regclass) " +
+                "AND NOT COALESCE('toast_tuple_target=512' = ANY(reloptions), FALSE)", String.class);
+        for (String table : untuned) {
+            jdbcTemplate.execute("ALTER TABLE " + table + " SET (toast_tuple_target = 512)");
+        }
+
+        // 在事务里执行，失败的 ALTER 会中止整个导入，所以先确认服务器支持 lz4（14 以下没有这个设置）
+        List<Boolean> lz4 = jdbcTemplate.queryForList("SELECT 'lz4' = ANY(enumvals) FROM pg_settings " +
+                "WHERE name = 'default_toast_compression'", Boolean.class);
+        if (lz4.isEmpty() || !Boolean.TRUE.equals(lz4.get(0))) {
+            log.warn("lz4 column compression is not available on this server, keeping the default for review texts");
+            return;
+        }
+        // attcompression 只在 14 及以上存在，上面已经确认过
+        List<Map<String, Object>> columns = jdbcTemplate.queryForList("SELECT attrelid::regclass::text AS tbl, " +
+                "attname::text AS col FROM pg_attribute WHERE attcompression <> 'l' " +
+                "AND (attrelid = 'reviews'::regclass AND attname = 'review' " +
+                "OR attrelid = 'recipes'::regclass AND attname = 'description')");
+        for (Map<String, Object> column : columns) {
+            jdbcTemplate.execute("ALTER TABLE " + column.get("tbl") + " ALTER COLUMN " + column.get("col")
+                    + " SET COMPRESSION lz4");
+        }
+        if (!columns.isEmpty()) {
+            log.info("Switched review and description texts to lz4; "
+                    + "texts already stored keep pglz until they are rewritten");
+        }
     }
 
     private void resetUserIdSequence() {
@@ -424,6 +625,15 @@ public class DatabaseServiceImpl implements DatabaseService {
         } catch (SQLException e) {
             throw new RuntimeException(e);
         }
+        recipeCache.clear();
+        caloriePairIndex.reset();
+        ingredientDictionary.clear();
+        ingredientBitmapIndex.reset();
+        likeBuffer.reset();
+        idBlockAllocator.reset();
+        reviewPageCache.clear();
+        recipeExistenceCache.reset();
+        tombstoneReaper.schemaChanged();
     }
 
     @Override
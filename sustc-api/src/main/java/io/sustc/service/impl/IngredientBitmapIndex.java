@@ -0,0 +1,142 @@
+package io.sustc.service.impl;
+
+import org.roaringbitmap.longlong.Roaring64Bitmap;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Per-JVM inverted index from ingredient id to the ids of the active recipes using it, one
+ * compressed (Roaring) bitmap per ingredient.
+ *
+ * <p>"Contains all of" is the intersection of the bitmaps and "contains any of" their union, both
+ * computed without touching {@code recipe_ingredients}. The index is loaded on first use and dropped
+ * by {@link #reset()}; recipe creation and deletion are applied after commit and are idempotent.
+ * The ingredient ids of every indexed recipe are kept as well, so a deletion only touches their bitmaps.
+ */
+@Component
+public class IngredientBitmapIndex {
+
+    @Autowired
+    @SuppressWarnings("SpringJavaInjectionPointsAutowiringInspection")
+    private JdbcTemplate jdbcTemplate;
+
+    private final Map<Integer, Roaring64Bitmap> bitmaps = new HashMap<>();
+
+    private final Map<Long, int[]> ingredientsByRecipe = new HashMap<>();
+
+    private boolean loaded;
+
+    /**
+     * @return a new bitmap of the recipes using every given ingredient
+     */
+    public synchronized Roaring64Bitmap containingAll(Collection<Integer> ingredientIds) {
+        ensureLoaded();
+        Roaring64Bitmap result = null;
+        for (Integer id : ingredientIds) {
+            Roaring64Bitmap bitmap = bitmaps.get(id);
+            if (bitmap == null) {
+                return new Roaring64Bitmap();
+            }
+            if (result == null) {
+                result = bitmap.clone();
+            } else {
+                result.and(bitmap);
+            }
+        }
+        return result == null ? new Roaring64Bitmap() : result;
+    }
+
+    /**
+     * @return a new bitmap of the recipes using at least one of the given ingredients
+     */
+    public synchronized Roaring64Bitmap containingAny(Collection<Integer> ingredientIds) {
+        ensureLoaded();
+        Roaring64Bitmap result = new Roaring64Bitmap();
+        for (Integer id : ingredientIds) {
+            Roaring64Bitmap bitmap = bitmaps.get(id);
+            if (bitmap != null) {
+                result.or(bitmap);
+            }
+        }
+        return result;
+    }
+
+    public void added(long recipeId, Collection<Integer> ingredientIds) {
+        if (!ingredientIds.isEmpty()) {
+            TransactionHooks.afterCommit(() -> insert(recipeId, ingredientIds));
+        }
+    }
+
+    public void removed(long recipeId) {
+        TransactionHooks.afterCommit(() -> delete(recipeId));
+    }
+
+    /**
+     * Drops the index; it is reloaded on the next lookup.
+     */
+    public synchronized void reset() {
+        bitmaps.clear();
+        ingredientsByRecipe.clear();
+        loaded = false;
+    }
+
+    private void ensureLoaded() {
+        if (loaded) {
+            return;
+        }
+        Map<Long, List<Integer>> byRecipe = new HashMap<>();
+        jdbcTemplate.query("SELECT ri.IngredientId, ri.RecipeId FROM recipe_ingredients ri " +
+                        "JOIN recipes r ON r.RecipeId = ri.RecipeId WHERE NOT r.IsDeleted",
+                rs -> {
+                    bitmaps.computeIfAbsent(rs.getInt(1), k -> new Roaring64Bitmap()).addLong(rs.getLong(2));
+                    byRecipe.computeIfAbsent(rs.getLong(2), k -> new ArrayList<>()).add(rs.getInt(1));
+                });
+        byRecipe.forEach((recipeId, ids) -> ingredientsByRecipe.put(recipeId, toArray(ids)));
+        for (Roaring64Bitmap bitmap : bitmaps.values()) {
+            bitmap.runOptimize();
+        }
+        loaded = true;
+    }
+
+    private synchronized void insert(long recipeId, Collection<Integer> ingredientIds) {
+        if (!loaded) {
+            return;
+        }
+        for (Integer id : ingredientIds) {
+            bitmaps.computeIfAbsent(id, k -> new Roaring64Bitmap()).addLong(recipeId);
+        }
+        ingredientsByRecipe.put(recipeId, toArray(ingredientIds));
+    }
+
+    private synchronized void delete(long recipeId) {
+        if (!loaded) {
+            return;
+        }
+        int[] ids = ingredientsByRecipe.remove(recipeId);
+        if (ids == null) {
+            return;
+        }
+        for (int id : ids) {
+            Roaring64Bitmap bitmap = bitmaps.get(id);
+            if (bitmap != null) {
+                bitmap.removeLong(recipeId);
+            }
+        }
+    }
+
+    private static int[] toArray(Collection<Integer> ids) {
+        int[] result = new int[ids.size()];
+        int i = 0;
+        for (Integer id : ids) {
+            result[i++] = id;
+        }
+        return result;
+    }
+}
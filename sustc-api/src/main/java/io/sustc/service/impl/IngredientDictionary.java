@@ -0,0 +1,177 @@
+package io.sustc.service.impl;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Dictionary encoding of ingredient parts: {@code recipe_ingredients} stores integer ids from
+ * {@code ingredients(IngredientId, Name)} instead of the text of every part.
+ *
+ * <p>Both directions are cached per JVM. The data set only has a few thousand distinct
+ * ingredients, so the cache is not bounded. Ids created by a transaction are only cached
+ * once it commits, so a rollback cannot leave dangling ids behind.
+ */
+@Component
+public class IngredientDictionary {
+
+    private static final int INTERN_CHUNK = 5000;
+
+    @Autowired
+    @SuppressWarnings("SpringJavaInjectionPointsAutowiringInspection")
+    private JdbcTemplate jdbcTemplate;
+
+    private final ConcurrentHashMap<String, Integer> idsByName = new ConcurrentHashMap<>();
+
+    private final ConcurrentHashMap<Integer, String> namesById = new ConcurrentHashMap<>();
+
+    /**
+     * Returns the ids of the given ingredient names, creating dictionary entries for new names.
+     */
+    public Map<String, Integer> intern(Collection<String> names) {
+        Map<String, Integer> result = new HashMap<>();
+        Set<String> missing = new LinkedHashSet<>();
+        for (String name : names) {
+            Integer id = idsByName.get(name);
+            if (id != null) {
+                result.put(name, id);
+            } else {
+                missing.add(name);
+            }
+        }
+        if (missing.isEmpty()) {
+            return result;
+        }
+
+        List<String> pending = new ArrayList<>(missing);
+        Map<String, Integer> created = new HashMap<>();
+        for (int i = 0; i < pending.size(); i += INTERN_CHUNK) {
+            List<String> chunk = pending.subList(i, Math.min(i + INTERN_CHUNK, pending.size()));
+            // New names come back from the insert; existing ones are not visible to it and are joined separately
+            jdbcTemplate.query("WITH input AS (SELECT DISTINCT unnest(?::text[]) AS Name), " +
+                            "ins AS (INSERT INTO ingredients (Name) SELECT Name FROM input " +
+                            "ON CONFLICT (Name) DO NOTHING RETURNING IngredientId, Name) " +
+                            "SELECT IngredientId, Name, TRUE FROM ins " +
+                            "UNION ALL SELECT i.IngredientId, i.Name, FALSE FROM ingredients i JOIN input ON i.Name = input.Name",
+                    ps -> SqlArrays.setStrings(ps, 1, chunk),
+                    rs -> {
+                        int id = rs.getInt(1);
+                        String name = rs.getString(2);
+                        result.put(name, id);
+                        if (rs.getBoolean(3)) {
+                            created.put(name, id);
+                        } else {
+                            remember(name, id);
+                        }
+                    });
+        }
+
+        // Names inserted by a concurrent transaction that committed while we ran are visible now
+        missing.removeAll(result.keySet());
+        if (!missing.isEmpty()) {
+            jdbcTemplate.query("SELECT IngredientId, Name FROM ingredients WHERE Name = ANY(?)",
+                    ps -> SqlArrays.setStrings(ps, 1, missing),
+                    rs -> {
+                        result.put(rs.getString(2), rs.getInt(1));
+                        remember(rs.getString(2), rs.getInt(1));
+                    });
+            missing.removeAll(result.keySet());
+            if (!missing.isEmpty()) {
+                throw new IllegalStateException("Could not intern ingredients " + missing);
+            }
+        }
+
+        if (!created.isEmpty()) {
+            TransactionHooks.afterCommit(() -> created.forEach(this::remember));
+        }
+        return result;
+    }
+
+    /**
+     * Returns the ids of those given names that are in the dictionary, without creating entries.
+     */
+    public Map<String, Integer> lookup(Collection<String> names) {
+        Map<String, Integer> result = new HashMap<>();
+        Set<String> missing = new LinkedHashSet<>();
+        for (String name : names) {
+            Integer id = idsByName.get(name);
+            if (id != null) {
+                result.put(name, id);
+            } else {
+                missing.add(name);
+            }
+        }
+        if (!missing.isEmpty()) {
+            jdbcTemplate.query("SELECT IngredientId, Name FROM ingredients WHERE Name = ANY(?)",
+                    ps -> SqlArrays.setStrings(ps, 1, missing),
+                    rs -> {
+                        result.put(rs.getString(2), rs.getInt(1));
+                        remember(rs.getString(2), rs.getInt(1));
+                    });
+        }
+        return result;
+    }
+
+    /**
+     * Decodes ingredient ids to names, sorted the way recipe ingredient lists are returned. The ids must
+     * come in database collation order of their names ({@code ORDER BY Name}); the names are then sorted
+     * case-insensitively (stable, so case variants keep the collation order).
+     */
+    public String[] decodeSorted(Integer[] ids) {
+        Set<Integer> unknown = new LinkedHashSet<>();
+        for (Integer id : ids) {
+            if (!namesById.containsKey(id)) {
+                unknown.add(id);
+            }
+        }
+        if (!unknown.isEmpty()) {
+            jdbcTemplate.query("SELECT IngredientId, Name FROM ingredients WHERE IngredientId = ANY(?)",
+                    ps -> SqlArrays.setInts(ps, 1, unknown),
+                    rs -> {
+                        // only this direction: the ids may belong to the current, uncommitted transaction
+                        namesById.put(rs.getInt(1), rs.getString(2));
+                    });
+        }
+        String[] names = new String[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            names[i] = namesById.get(ids[i]);
+        }
+        Arrays.sort(names, String.CASE_INSENSITIVE_ORDER);
+        return names;
+    }
+
+    /**
+     * Forgets all entries, now and again when the current transaction completes
+     * (the import truncates the table and restarts its ids).
+     */
+    public void clear() {
+        idsByName.clear();
+        namesById.clear();
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    idsByName.clear();
+                    namesById.clear();
+                }
+            });
+        }
+    }
+
+    private void remember(String name, int id) {
+        idsByName.put(name, id);
+        namesById.put(id, name);
+    }
+}
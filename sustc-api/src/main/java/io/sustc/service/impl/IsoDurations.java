@@ -0,0 +1,87 @@
+package io.sustc.service.impl;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.time.format.DateTimeParseException;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * ISO-8601 duration helpers shared by the recipe service and the import.
+ *
+ * <p>Recipes keep the original {@code CookTime}, {@code PrepTime} and {@code TotalTime} strings
+ * next to their length in seconds ({@code *Sec} columns, {@code NUMERIC} so fractional seconds
+ * survive). The column is {@code NULL} when the string is {@code null}, empty or not a valid duration.
+ *
+ * <p>Parsed values are cached: the data set only uses a few thousand distinct durations.
+ */
+final class IsoDurations {
+
+    private static final int MAX_CACHED = 4096;
+
+    private static final ConcurrentHashMap<String, Duration> CACHE = new ConcurrentHashMap<>();
+
+    private IsoDurations() {
+    }
+
+    /**
+     * @throws IllegalArgumentException if {@code iso} is not a valid ISO-8601 duration
+     */
+    static Duration parse(String iso) {
+        Duration d = CACHE.get(iso);
+        if (d != null) {
+            return d;
+        }
+        try {
+            d = Duration.parse(iso);
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException("Invalid duration format", e);
+        }
+        if (CACHE.size() >= MAX_CACHED) {
+            CACHE.clear();
+        }
+        CACHE.put(iso, d);
+        return d;
+    }
+
+    /**
+     * Like {@link #parse}, but {@code null} for {@code null}, empty or invalid input.
+     */
+    static Duration tryParse(String iso) {
+        if (iso == null || iso.isEmpty()) {
+            return null;
+        }
+        try {
+            return parse(iso);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    static BigDecimal toSeconds(Duration d) {
+        BigDecimal seconds = BigDecimal.valueOf(d.getSeconds());
+        return d.getNano() == 0 ? seconds : seconds.add(BigDecimal.valueOf(d.getNano(), 9)).stripTrailingZeros();
+    }
+
+    /**
+     * Value of a {@code *Sec} column for the given ISO string.
+     */
+    static BigDecimal secondsOrNull(String iso) {
+        Duration d = tryParse(iso);
+        return d == null ? null : toSeconds(d);
+    }
+
+    /**
+     * SQL expression rendering the non-negative {@code NUMERIC} seconds {@code expr} the way
+     * {@link Duration#toString()} does, e.g. {@code PT1H30M}, {@code PT45.5S} or {@code PT0S}.
+     */
+    static String formatSql(String expr) {
+        String t = "(" + expr + ")";
+        String s = "mod(" + t + ", 60)";
+        // trim_scale 需要 PostgreSQL 13；整数秒直接转 bigint，带小数的去掉末尾的 0（小数部分非零，不会剩下 '.'）
+        return "CASE WHEN " + t + " = 0 THEN 'PT0S' ELSE 'PT'" +
+                " || CASE WHEN " + t + " >= 3600 THEN div(" + t + ", 3600)::text || 'H' ELSE '' END" +
+                " || CASE WHEN mod(" + t + ", 3600) >= 60 THEN div(mod(" + t + ", 3600), 60)::text || 'M' ELSE '' END" +
+                " || CASE WHEN " + s + " = 0 THEN '' WHEN " + s + " = trunc(" + s + ") THEN " + s + "::bigint::text || 'S'" +
+                " ELSE rtrim(" + s + "::text, '0') || 'S' END END";
+    }
+}
@@ -0,0 +1,466 @@
+package io.sustc.service.impl;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Optional write coalescing for {@code likeReview} / {@code unlikeReview} on hot reviews.
+ *
+ * <p>{@code sustc.likes.mode} selects the write path:
+ * <ul>
+ *     <li>{@code sync} (default): every call writes its own like row and counter, the buffer is unused;</li>
+ *     <li>{@code group-commit}: calls are buffered and return once the batch holding them has committed;</li>
+ *     <li>{@code write-behind}: calls return as soon as they are buffered; up to one flush interval of
+ *     likes is lost if the process dies.</li>
+ * </ul>
+ *
+ * <p>In the buffered modes each touched review keeps its full liker set in memory, loaded once from
+ * {@code review_likes}, so the returned count is exact right away. Pending changes are coalesced to the
+ * last state per (review, user) in one of {@code sustc.likes.stripes} striped maps. Every
+ * {@code sustc.likes.flush-interval-ms} a single thread writes all of them in one statement: a multi-row
+ * insert, a multi-row delete and the {@code LikeCount} update derived from the rows that actually
+ * changed. Shutting down drains what is still buffered.
+ *
+ * <p>Readers such as {@code listByRecipe} see buffered likes only after the flush. Changes of reviews that
+ * are gone by then are skipped by the statement instead of failing it. After a failed flush the changes
+ * are put back and retried with the next one (group-commit callers keep waiting); only after
+ * {@value #MAX_FLUSH_ATTEMPTS} failures in a row are they dropped, the callers get the error and the
+ * affected reviews are reloaded from the database. A group-commit caller waits at most
+ * {@value #COMMIT_WAIT_MILLIS} ms; after that its change stays buffered as in write-behind mode.
+ */
+@Component
+@Slf4j
+public class LikeBuffer implements InitializingBean, DisposableBean {
+
+    /**
+     * Idle reviews without pending changes are dropped from memory after this long.
+     */
+    private static final long ENTRY_IDLE_MILLIS = 1000;
+
+    private static final int MAX_FLUSH_ATTEMPTS = 5;
+
+    private static final long COMMIT_WAIT_MILLIS = 30_000;
+
+    private static final String FLUSH_SQL = "WITH ins AS (" +
+            "INSERT INTO review_likes (ReviewId, AuthorId) " +
+            "SELECT l.ReviewId, l.AuthorId FROM unnest(?::bigint[], ?::bigint[]) AS l(ReviewId, AuthorId) " +
+            // 锁住评论和用户，避免插入前被删除导致外键错误让整批失败
+            "JOIN reviews rv ON rv.ReviewId = l.ReviewId JOIN users u ON u.AuthorId = l.AuthorId " +
+            "FOR KEY SHARE OF rv, u " +
+            "ON CONFLICT DO NOTHING RETURNING ReviewId" +
+            "), del AS (" +
+            "DELETE FROM review_likes rl USING unnest(?::bigint[], ?::bigint[]) AS d(ReviewId, AuthorId) " +
+            "WHERE rl.ReviewId = d.ReviewId AND rl.AuthorId = d.AuthorId RETURNING rl.ReviewId" +
+            "), delta AS (" +
+            "SELECT ReviewId, SUM(n) AS n FROM " +
+            "(SELECT ReviewId, 1 AS n FROM ins UNION ALL SELECT ReviewId, -1 AS n FROM del) x GROUP BY ReviewId" +
+            ") UPDATE reviews rv SET LikeCount = rv.LikeCount + delta.n FROM delta WHERE rv.ReviewId = delta.ReviewId " +
+            "RETURNING rv.RecipeId";
+
+    @Autowired
+    @SuppressWarnings("SpringJavaInjectionPointsAutowiringInspection")
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private ReviewPageCache reviewPageCache;
+
+    @Value("${sustc.likes.mode:sync}")
+    private String mode;
+
+    @Value("${sustc.likes.flush-interval-ms:5}")
+    private long flushIntervalMillis;
+
+    @Value("${sustc.likes.stripes:16}")
+    private int stripeCount;
+
+    private boolean groupCommit;
+
+    private volatile boolean enabled;
+
+    private Stripe[] stripes;
+
+    private ScheduledExecutorService executor;
+
+    @Override
+    public void afterPropertiesSet() {
+        switch (mode) {
+            case "sync":
+                return;
+            case "group-commit":
+                groupCommit = true;
+                break;
+            case "write-behind":
+                groupCommit = false;
+                break;
+            default:
+                throw new IllegalStateException("Unknown sustc.likes.mode: " + mode);
+        }
+        stripes = new Stripe[Math.max(1, stripeCount)];
+        for (int i = 0; i < stripes.length; i++) {
+            stripes[i] = new Stripe();
+        }
+        executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "like-flusher");
+            t.setDaemon(true);
+            return t;
+        });
+        executor.scheduleWithFixedDelay(this::flush, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+        enabled = true;
+        log.info("Likes are buffered ({}), flushed every {} ms", mode, flushIntervalMillis);
+    }
+
+    @Override
+    public void destroy() throws InterruptedException {
+        if (executor == null) {
+            return;
+        }
+        // later calls take the sync path; whatever is still buffered is written once more
+        enabled = false;
+        executor.shutdown();
+        executor.awaitTermination(10, TimeUnit.SECONDS);
+        // each failed attempt requeues its changes; the last one drops them and releases the waiting callers
+        for (int i = 0; i < MAX_FLUSH_ATTEMPTS && hasPending(); i++) {
+            if (i > 0) {
+                // give a transient failure (lock timeout, failover) time to pass
+                Thread.sleep(Math.max(1, flushIntervalMillis) << i);
+            }
+            flush();
+        }
+    }
+
+    /**
+     * Whether like and unlike calls should go through {@link #like} and {@link #unlike}.
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Buffers a like of an existing review by a user that is allowed to like it.
+     *
+     * @return the number of likes of the review including this one
+     */
+    public long like(long reviewId, long authorId) {
+        return apply(reviewId, authorId, true);
+    }
+
+    /**
+     * Buffers the removal of a like, see {@link #like}.
+     *
+     * @return the number of likes of the review after the removal
+     */
+    public long unlike(long reviewId, long authorId) {
+        return apply(reviewId, authorId, false);
+    }
+
+    /**
+     * Drops the buffered state of a review whose likes are deleted by other means.
+     * Changes already being flushed are skipped by the flush once the review is gone.
+     */
+    public void forget(long reviewId) {
+        if (stripes == null) {
+            return;
+        }
+        Stripe stripe = stripeOf(reviewId);
+        synchronized (stripe) {
+            stripe.entries.remove(reviewId);
+        }
+    }
+
+    /**
+     * Drops all buffered state (the import truncates the tables).
+     */
+    public void reset() {
+        if (stripes == null) {
+            return;
+        }
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                stripe.entries.clear();
+            }
+        }
+    }
+
+    private long apply(long reviewId, long authorId, boolean liked) {
+        Stripe stripe = stripeOf(reviewId);
+        Set<Long> loaded = null;
+        long count;
+        CompletableFuture<Void> batch = null;
+        while (true) {
+            synchronized (stripe) {
+                Entry entry = stripe.entries.get(reviewId);
+                if (entry == null && loaded != null) {
+                    entry = new Entry(loaded);
+                    stripe.entries.put(reviewId, entry);
+                }
+                if (entry != null) {
+                    boolean changed = liked ? entry.likers.add(authorId) : entry.likers.remove(authorId);
+                    if (changed) {
+                        entry.pending.put(authorId, liked);
+                    }
+                    // a repeated call must also wait for the batch holding the earlier, unflushed change
+                    if (entry.pending.containsKey(authorId)) {
+                        batch = stripe.batch;
+                    }
+                    entry.touchedAt = System.currentTimeMillis();
+                    count = entry.likers.size();
+                    break;
+                }
+            }
+            // the database read happens outside the stripe lock
+            loaded = loadLikers(reviewId);
+        }
+        if (groupCommit && batch != null) {
+            try {
+                batch.get(COMMIT_WAIT_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (ExecutionException e) {
+                throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause()
+                        : new IllegalStateException(e.getCause());
+            } catch (TimeoutException e) {
+                log.warn("Like of review {} by {} not committed after {} ms, leaving it buffered",
+                        reviewId, authorId, COMMIT_WAIT_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return count;
+    }
+
+    private boolean hasPending() {
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                for (Entry entry : stripe.entries.values()) {
+                    if (!entry.pending.isEmpty()) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Runs on the flusher thread; an exception escaping it would silently cancel the schedule.
+     */
+    private void flush() {
+        try {
+            flushPending();
+            evictIdle();
+        } catch (RuntimeException e) {
+            log.error("Like flush failed", e);
+        }
+    }
+
+    private void flushPending() {
+        List<Long> insertReviews = new ArrayList<>();
+        List<Long> insertAuthors = new ArrayList<>();
+        List<Long> deleteReviews = new ArrayList<>();
+        List<Long> deleteAuthors = new ArrayList<>();
+        Map<Stripe, Map<Long, Map<Long, Boolean>>> flushed = new HashMap<>();
+        Map<Stripe, CompletableFuture<Void>> batches = new HashMap<>();
+
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                Map<Long, Map<Long, Boolean>> ops = new HashMap<>();
+                for (Map.Entry<Long, Entry> e : stripe.entries.entrySet()) {
+                    Entry entry = e.getValue();
+                    if (entry.pending.isEmpty()) {
+                        continue;
+                    }
+                    for (Map.Entry<Long, Boolean> op : entry.pending.entrySet()) {
+                        if (op.getValue()) {
+                            insertReviews.add(e.getKey());
+                            insertAuthors.add(op.getKey());
+                        } else {
+                            deleteReviews.add(e.getKey());
+                            deleteAuthors.add(op.getKey());
+                        }
+                    }
+                    ops.put(e.getKey(), new HashMap<>(entry.pending));
+                    entry.pending.clear();
+                }
+                if (!ops.isEmpty()) {
+                    flushed.put(stripe, ops);
+                    batches.put(stripe, stripe.batch);
+                    stripe.batch = new CompletableFuture<>();
+                }
+            }
+        }
+
+        if (!flushed.isEmpty()) {
+            try {
+                Set<Long> recipeIds = new HashSet<>();
+                jdbcTemplate.query(FLUSH_SQL, ps -> {
+                    SqlArrays.setLongs(ps, 1, insertReviews);
+                    SqlArrays.setLongs(ps, 2, insertAuthors);
+                    SqlArrays.setLongs(ps, 3, deleteReviews);
+                    SqlArrays.setLongs(ps, 4, deleteAuthors);
+                }, rs -> {
+                    recipeIds.add(rs.getLong(1));
+                });
+                // cached review pages of these recipes now show stale likes
+                recipeIds.forEach(reviewPageCache::bump);
+                flushed.keySet().forEach(stripe -> stripe.failures = 0);
+                batches.values().forEach(b -> b.complete(null));
+            } catch (RuntimeException e) {
+                // not only DataAccessException: whatever fails, the callers must not wait forever.
+                // Re-running the statement is harmless, it skips rows that are already in place
+                log.error("Failed to flush {} buffered likes and {} unlikes", insertReviews.size(), deleteReviews.size(), e);
+                flushed.forEach((stripe, ops) -> {
+                    try {
+                        requeue(stripe, ops, batches.get(stripe), e);
+                    } catch (RuntimeException requeueError) {
+                        batches.get(stripe).completeExceptionally(e);
+                        log.error("Failed to requeue buffered like changes", requeueError);
+                    }
+                });
+            }
+        }
+    }
+
+    /**
+     * Puts the changes of a failed flush back into the pending maps, unless a newer change of the same
+     * (review, user) pair or the end of the review ({@link #forget}) superseded them. Their callers then
+     * wait for the next batch. After too many failures in a row the changes are dropped instead.
+     */
+    private void requeue(Stripe stripe, Map<Long, Map<Long, Boolean>> ops, CompletableFuture<Void> batch,
+                         RuntimeException error) {
+        boolean giveUp;
+        synchronized (stripe) {
+            giveUp = ++stripe.failures >= MAX_FLUSH_ATTEMPTS;
+            if (giveUp) {
+                stripe.failures = 0;
+            } else {
+                ops.forEach((reviewId, changes) -> {
+                    Entry entry = stripe.entries.get(reviewId);
+                    if (entry != null) {
+                        changes.forEach(entry.pending::putIfAbsent);
+                    }
+                });
+                stripe.batch.whenComplete((v, e) -> {
+                    if (e == null) {
+                        batch.complete(null);
+                    } else {
+                        batch.completeExceptionally(e);
+                    }
+                });
+            }
+        }
+        if (giveUp) {
+            log.error("Dropping buffered like changes of {} reviews after {} failed flushes", ops.size(), MAX_FLUSH_ATTEMPTS);
+            resync(stripe, ops.keySet());
+            batch.completeExceptionally(error);
+        }
+    }
+
+    /**
+     * After changes were dropped, rebuilds the in-memory liker sets from the database plus the changes
+     * buffered since, so the counts handed out stay consistent with what will be written.
+     */
+    private void resync(Stripe stripe, Set<Long> reviewIds) {
+        for (Long reviewId : reviewIds) {
+            Set<Long> loaded;
+            try {
+                loaded = loadLikers(reviewId);
+            } catch (DataAccessException e) {
+                synchronized (stripe) {
+                    stripe.entries.remove(reviewId);
+                }
+                continue;
+            }
+            synchronized (stripe) {
+                Entry entry = stripe.entries.get(reviewId);
+                if (entry == null) {
+                    continue;
+                }
+                entry.likers.clear();
+                entry.likers.addAll(loaded);
+                entry.pending.forEach((authorId, liked) -> {
+                    if (liked) {
+                        entry.likers.add(authorId);
+                    } else {
+                        entry.likers.remove(authorId);
+                    }
+                });
+            }
+        }
+    }
+
+    private void evictIdle() {
+        long threshold = System.currentTimeMillis() - ENTRY_IDLE_MILLIS;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                Iterator<Entry> it = stripe.entries.values().iterator();
+                while (it.hasNext()) {
+                    Entry entry = it.next();
+                    if (entry.pending.isEmpty() && entry.touchedAt < threshold) {
+                        it.remove();
+                    }
+                }
+            }
+        }
+    }
+
+    private Set<Long> loadLikers(long reviewId) {
+        return new HashSet<>(jdbcTemplate.queryForList(
+                "SELECT AuthorId FROM review_likes WHERE ReviewId = ?", Long.class, reviewId));
+    }
+
+    private Stripe stripeOf(long reviewId) {
+        return stripes[(int) Math.floorMod(reviewId, (long) stripes.length)];
+    }
+
+    private static final class Stripe {
+
+        final Map<Long, Entry> entries = new HashMap<>();
+
+        /**
+         * Completes when the changes currently pending in this stripe have been committed.
+         */
+        CompletableFuture<Void> batch = new CompletableFuture<>();
+
+        /**
+         * Failed flushes of this stripe in a row.
+         */
+        int failures;
+    }
+
+    private static final class Entry {
+
+        /**
+         * Persisted likers with the pending changes applied.
+         */
+        final Set<Long> likers;
+
+        /**
+         * Last requested state per user that is not flushed yet: {@code true} liked, {@code false} not.
+         */
+        final Map<Long, Boolean> pending = new HashMap<>();
+
+        long touchedAt;
+
+        Entry(Set<Long> likers) {
+            this.likers = likers;
+        }
+    }
+}
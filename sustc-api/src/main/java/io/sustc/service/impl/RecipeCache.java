@@ -0,0 +1,307 @@
+package io.sustc.service.impl;
+
+import io.sustc.dto.RecipeRecord;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.LongFunction;
+
+/**
+ * Per-JVM read-through cache of recipe records and names, keyed by recipe id.
+ *
+ * <p>Entries are evicted in LRU order once either the entry count or the estimated weight
+ * (roughly the size of the cached strings in bytes) exceeds its limit. Lookups of missing ids
+ * are cached as negative entries for a short time.
+ *
+ * <p>Writers must call {@link #invalidate(long)} for every recipe they modify. Inside a
+ * transaction the entry is dropped again after completion, and a load that overlapped any
+ * invalidation is not stored, so a concurrent reader cannot re-populate it with a stale row.
+ */
+@Component
+public class RecipeCache {
+
+    private final boolean enabled;
+
+    private final int maxEntries;
+
+    private final long maxWeight;
+
+    private final long negativeTtlMillis;
+
+    private final LinkedHashMap<Long, Entry> entries = new LinkedHashMap<>(256, 0.75f, true);
+
+    private long weight;
+
+    /**
+     * Bumped by every invalidation; loads started before a bump are not cached.
+     */
+    private long generation;
+
+    private final LongAdder hits = new LongAdder();
+
+    private final LongAdder misses = new LongAdder();
+
+    public RecipeCache(@Value("${sustc.cache.recipe.enabled:true}") boolean enabled,
+                       @Value("${sustc.cache.recipe.max-entries:20000}") int maxEntries,
+                       @Value("${sustc.cache.recipe.max-weight:67108864}") long maxWeight,
+                       @Value("${sustc.cache.recipe.negative-ttl-ms:30000}") long negativeTtlMillis) {
+        this.enabled = enabled;
+        this.maxEntries = maxEntries;
+        this.maxWeight = maxWeight;
+        this.negativeTtlMillis = negativeTtlMillis;
+    }
+
+    /**
+     * Returns a copy of the cached record, loading it with {@code loader} on a miss.
+     * A {@code null} result of the loader is cached as a negative entry.
+     */
+    public RecipeRecord getRecord(long recipeId, LongFunction<RecipeRecord> loader) {
+        if (!enabled) {
+            return loader.apply(recipeId);
+        }
+        Entry entry = lookup(recipeId);
+        // name-only entries (from getName) do not satisfy a record lookup
+        if (entry != null && (entry.isMissing() || entry.record != null)) {
+            hits.increment();
+            return copy(entry.record);
+        }
+        misses.increment();
+        long gen = generation();
+        RecipeRecord record = loader.apply(recipeId);
+        put(recipeId, record == null ? missing() : new Entry(copy(record), record.getName()), gen);
+        return record;
+    }
+
+    /**
+     * Returns the cached recipe name, loading only the name with {@code loader} on a miss.
+     */
+    public String getName(long recipeId, LongFunction<String> loader) {
+        if (!enabled) {
+            return loader.apply(recipeId);
+        }
+        Entry entry = lookup(recipeId);
+        if (entry != null) {
+            hits.increment();
+            return entry.name;
+        }
+        misses.increment();
+        long gen = generation();
+        String name = loader.apply(recipeId);
+        put(recipeId, name == null ? missing() : new Entry(null, name), gen);
+        return name;
+    }
+
+    /**
+     * Multi-get variant of {@link #getRecord}: the ids missing from the cache are loaded with a single
+     * call of {@code loader}, which returns the rows it found keyed by id.
+     *
+     * @return copies of the records in the order of {@code recipeIds}, {@code null} for missing or {@code null} ids
+     */
+    public List<RecipeRecord> getRecords(List<Long> recipeIds, Function<Set<Long>, Map<Long, RecipeRecord>> loader) {
+        Map<Long, RecipeRecord> found = new LinkedHashMap<>();
+        Set<Long> toLoad = new LinkedHashSet<>();
+        for (Long id : recipeIds) {
+            if (id == null || found.containsKey(id) || toLoad.contains(id)) {
+                continue;
+            }
+            Entry entry = enabled ? lookup(id) : null;
+            if (entry != null && (entry.isMissing() || entry.record != null)) {
+                hits.increment();
+                found.put(id, entry.record);
+            } else {
+                misses.increment();
+                toLoad.add(id);
+            }
+        }
+        if (!toLoad.isEmpty()) {
+            long gen = generation();
+            Map<Long, RecipeRecord> loaded = loader.apply(Collections.unmodifiableSet(toLoad));
+            for (Long id : toLoad) {
+                RecipeRecord record = loaded.get(id);
+                if (enabled) {
+                    put(id, record == null ? missing() : new Entry(copy(record), record.getName()), gen);
+                }
+                found.put(id, record);
+            }
+        }
+        List<RecipeRecord> result = new ArrayList<>(recipeIds.size());
+        for (Long id : recipeIds) {
+            result.add(id == null ? null : copy(found.get(id)));
+        }
+        return result;
+    }
+
+    /**
+     * Multi-get variant of {@link #getName}.
+     *
+     * @return the names in the order of {@code recipeIds}, {@code null} for missing or {@code null} ids
+     */
+    public List<String> getNames(List<Long> recipeIds, Function<Set<Long>, Map<Long, String>> loader) {
+        Map<Long, String> found = new LinkedHashMap<>();
+        Set<Long> toLoad = new LinkedHashSet<>();
+        for (Long id : recipeIds) {
+            if (id == null || found.containsKey(id) || toLoad.contains(id)) {
+                continue;
+            }
+            Entry entry = enabled ? lookup(id) : null;
+            if (entry != null) {
+                hits.increment();
+                found.put(id, entry.name);
+            } else {
+                misses.increment();
+                toLoad.add(id);
+            }
+        }
+        if (!toLoad.isEmpty()) {
+            long gen = generation();
+            Map<Long, String> loaded = loader.apply(Collections.unmodifiableSet(toLoad));
+            for (Long id : toLoad) {
+                String name = loaded.get(id);
+                if (enabled) {
+                    put(id, name == null ? missing() : new Entry(null, name), gen);
+                }
+                found.put(id, name);
+            }
+        }
+        List<String> result = new ArrayList<>(recipeIds.size());
+        for (Long id : recipeIds) {
+            result.add(id == null ? null : found.get(id));
+        }
+        return result;
+    }
+
+    public void invalidate(long recipeId) {
+        if (!enabled) {
+            return;
+        }
+        remove(recipeId);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    remove(recipeId);
+                }
+            });
+        }
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        weight = 0;
+        generation++;
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    private synchronized Entry lookup(long recipeId) {
+        Entry entry = entries.get(recipeId);
+        if (entry != null && entry.expiresAt != 0 && entry.expiresAt < System.currentTimeMillis()) {
+            entries.remove(recipeId);
+            weight -= entry.weight;
+            return null;
+        }
+        return entry;
+    }
+
+    private synchronized long generation() {
+        return generation;
+    }
+
+    private synchronized void put(long recipeId, Entry entry, long loadedAt) {
+        if (loadedAt != generation) {
+            return;
+        }
+        Entry old = entries.put(recipeId, entry);
+        if (old != null) {
+            weight -= old.weight;
+        }
+        weight += entry.weight;
+
+        Iterator<Map.Entry<Long, Entry>> it = entries.entrySet().iterator();
+        while ((entries.size() > maxEntries || weight > maxWeight) && it.hasNext()) {
+            weight -= it.next().getValue().weight;
+            it.remove();
+        }
+    }
+
+    private synchronized void remove(long recipeId) {
+        generation++;
+        Entry old = entries.remove(recipeId);
+        if (old != null) {
+            weight -= old.weight;
+        }
+    }
+
+    private Entry missing() {
+        Entry entry = new Entry(null, null);
+        entry.expiresAt = System.currentTimeMillis() + negativeTtlMillis;
+        return entry;
+    }
+
+    private static RecipeRecord copy(RecipeRecord record) {
+        if (record == null) {
+            return null;
+        }
+        String[] parts = record.getRecipeIngredientParts();
+        return record.toBuilder()
+                .recipeIngredientParts(parts == null ? null : parts.clone())
+                .build();
+    }
+
+    private static final class Entry {
+
+        final RecipeRecord record;
+
+        final String name;
+
+        final long weight;
+
+        long expiresAt;
+
+        Entry(RecipeRecord record, String name) {
+            this.record = record;
+            this.name = name;
+            this.weight = estimateWeight(record, name);
+        }
+
+        boolean isMissing() {
+            return record == null && name == null;
+        }
+
+        private static long estimateWeight(RecipeRecord record, String name) {
+            long w = 64 + length(name);
+            if (record != null) {
+                w += 256 + length(record.getAuthorName()) + length(record.getDescription())
+                        + length(record.getRecipeCategory()) + length(record.getRecipeYield());
+                if (record.getRecipeIngredientParts() != null) {
+                    for (String part : record.getRecipeIngredientParts()) {
+                        w += 16 + length(part);
+                    }
+                }
+            }
+            return w;
+        }
+
+        private static long length(String s) {
+            return s == null ? 0 : 2L * s.length();
+        }
+    }
+}
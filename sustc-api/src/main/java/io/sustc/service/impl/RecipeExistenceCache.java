@@ -0,0 +1,88 @@
+package io.sustc.service.impl;
+
+import org.roaringbitmap.longlong.Roaring64Bitmap;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.Collection;
+
+/**
+ * Per-JVM set of the ids of all active (not deleted) recipes, kept in one compressed (Roaring)
+ * bitmap, so "does this recipe exist" needs no round trip.
+ *
+ * <p>The set is loaded on first use and dropped by {@link #reset()}. Creations and deletions are
+ * applied after commit and are idempotent, like the other in-memory recipe indexes. With
+ * {@code sustc.cache.recipe-exists.enabled=false} callers probe the database instead.
+ */
+@Component
+public class RecipeExistenceCache {
+
+    @Autowired
+    @SuppressWarnings("SpringJavaInjectionPointsAutowiringInspection")
+    private JdbcTemplate jdbcTemplate;
+
+    private final boolean enabled;
+
+    private final Roaring64Bitmap ids = new Roaring64Bitmap();
+
+    private boolean loaded;
+
+    public RecipeExistenceCache(@Value("${sustc.cache.recipe-exists.enabled:true}") boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public synchronized boolean contains(long recipeId) {
+        if (!loaded) {
+            jdbcTemplate.query("SELECT RecipeId FROM recipes WHERE NOT IsDeleted", rs -> {
+                ids.addLong(rs.getLong(1));
+            });
+            ids.runOptimize();
+            loaded = true;
+        }
+        return ids.contains(recipeId);
+    }
+
+    public void added(long recipeId) {
+        if (enabled) {
+            TransactionHooks.afterCommit(() -> insert(recipeId));
+        }
+    }
+
+    public void addedAll(Collection<Long> recipeIds) {
+        if (enabled && !recipeIds.isEmpty()) {
+            TransactionHooks.afterCommit(() -> recipeIds.forEach(this::insert));
+        }
+    }
+
+    public void removed(long recipeId) {
+        if (enabled) {
+            TransactionHooks.afterCommit(() -> delete(recipeId));
+        }
+    }
+
+    /**
+     * Drops the set; it is reloaded on the next lookup.
+     */
+    public synchronized void reset() {
+        ids.clear();
+        loaded = false;
+    }
+
+    private synchronized void insert(long recipeId) {
+        if (loaded) {
+            ids.addLong(recipeId);
+        }
+    }
+
+    private synchronized void delete(long recipeId) {
+        if (loaded) {
+            ids.removeLong(recipeId);
+        }
+    }
+}
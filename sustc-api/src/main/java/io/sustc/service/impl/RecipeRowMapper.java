@@ -0,0 +1,101 @@
+package io.sustc.service.impl;
+
+import io.sustc.dto.RecipeRecord;
+import org.springframework.jdbc.core.RowMapper;
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Maps rows of {@code recipes} (optionally joined with {@code users u}) to {@link RecipeRecord}.
+ *
+ * <p>Columns are read by ordinal. The ordinals are resolved from the result set metadata on the
+ * first row and reused for the rest of the statement, so create one mapper per query.
+ * Columns missing from the projection (e.g. {@code AuthorName} in a {@code RETURNING} list) are left unset.
+ */
+class RecipeRowMapper implements RowMapper<RecipeRecord> {
+
+    /**
+     * Projection of every field of {@link RecipeRecord} except the ingredient parts.
+     */
+    static final String FULL_COLUMNS =
+            "r.RecipeId, r.Name, r.AuthorId, u.AuthorName, r.CookTime, r.PrepTime, r.TotalTime, r.DatePublished, " +
+                    "r.Description, r.RecipeCategory, r.AggregatedRating, r.ReviewCount, r.Calories, r.FatContent, " +
+                    "r.SaturatedFatContent, r.CholesterolContent, r.SodiumContent, r.CarbohydrateContent, " +
+                    "r.FiberContent, r.SugarContent, r.ProteinContent, r.RecipeServings, r.RecipeYield";
+
+    private static final String[] LABELS = {
+            "recipeid", "name", "authorid", "authorname", "cooktime", "preptime", "totaltime", "datepublished",
+            "description", "recipecategory", "aggregatedrating", "reviewcount", "calories", "fatcontent",
+            "saturatedfatcontent", "cholesterolcontent", "sodiumcontent", "carbohydratecontent", "fibercontent",
+            "sugarcontent", "proteincontent", "recipeservings", "recipeyield"
+    };
+
+    private static final int RECIPE_ID = 0, NAME = 1, AUTHOR_ID = 2, AUTHOR_NAME = 3, COOK_TIME = 4, PREP_TIME = 5,
+            TOTAL_TIME = 6, DATE_PUBLISHED = 7, DESCRIPTION = 8, CATEGORY = 9, RATING = 10, REVIEW_COUNT = 11,
+            CALORIES = 12, FAT = 13, SATURATED_FAT = 14, CHOLESTEROL = 15, SODIUM = 16, CARBOHYDRATE = 17,
+            FIBER = 18, SUGAR = 19, PROTEIN = 20, SERVINGS = 21, YIELD = 22;
+
+    private int[] ordinals;
+
+    @Override
+    public RecipeRecord mapRow(ResultSet rs, int rowNum) throws SQLException {
+        if (ordinals == null) {
+            ordinals = resolveOrdinals(rs.getMetaData());
+        }
+        int[] o = ordinals;
+
+        RecipeRecord record = new RecipeRecord();
+        record.setRecipeId(rs.getLong(o[RECIPE_ID]));
+        record.setName(rs.getString(o[NAME]));
+        record.setAuthorId(rs.getLong(o[AUTHOR_ID]));
+        if (o[AUTHOR_NAME] > 0) record.setAuthorName(rs.getString(o[AUTHOR_NAME]));
+        record.setCookTime(rs.getString(o[COOK_TIME]));
+        record.setPrepTime(rs.getString(o[PREP_TIME]));
+        record.setTotalTime(rs.getString(o[TOTAL_TIME]));
+        record.setDatePublished(rs.getTimestamp(o[DATE_PUBLISHED]));
+        if (o[DESCRIPTION] > 0) record.setDescription(rs.getString(o[DESCRIPTION]));
+        record.setRecipeCategory(rs.getString(o[CATEGORY]));
+        record.setAggregatedRating(rs.getFloat(o[RATING]));
+        record.setReviewCount(rs.getInt(o[REVIEW_COUNT]));
+        record.setCalories(rs.getFloat(o[CALORIES]));
+        record.setFatContent(rs.getFloat(o[FAT]));
+        record.setSaturatedFatContent(rs.getFloat(o[SATURATED_FAT]));
+        record.setCholesterolContent(rs.getFloat(o[CHOLESTEROL]));
+        record.setSodiumContent(rs.getFloat(o[SODIUM]));
+        record.setCarbohydrateContent(rs.getFloat(o[CARBOHYDRATE]));
+        record.setFiberContent(rs.getFloat(o[FIBER]));
+        record.setSugarContent(rs.getFloat(o[SUGAR]));
+        record.setProteinContent(rs.getFloat(o[PROTEIN]));
+        record.setRecipeServings(parseServings(rs.getString(o[SERVINGS])));
+        record.setRecipeYield(rs.getString(o[YIELD]));
+        return record;
+    }
+
+    private static int[] resolveOrdinals(ResultSetMetaData meta) throws SQLException {
+        Map<String, Integer> byLabel = new HashMap<>();
+        for (int i = meta.getColumnCount(); i >= 1; i--) {
+            byLabel.put(meta.getColumnLabel(i).toLowerCase(Locale.ROOT), i);
+        }
+        int[] ordinals = new int[LABELS.length];
+        for (int i = 0; i < LABELS.length; i++) {
+            ordinals[i] = byLabel.getOrDefault(LABELS[i], 0);
+        }
+        return ordinals;
+    }
+
+    private static int parseServings(String servings) {
+        if (servings == null || servings.isEmpty() || servings.equals("null")) {
+            return 0;
+        }
+        try {
+            return Integer.parseInt(servings);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+}
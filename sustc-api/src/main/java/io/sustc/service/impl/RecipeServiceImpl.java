@@ -3,29 +3,100 @@ package io.sustc.service.impl;
 import io.sustc.dto.*;
 import io.sustc.service.RecipeService;
 import lombok.extern.slf4j.Slf4j;
+import org.roaringbitmap.longlong.Roaring64Bitmap;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.dao.EmptyResultDataAccessException;
+import org.springframework.jdbc.core.ArgumentPreparedStatementSetter;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.core.SqlParameterValue;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional ;
 
-import java.sql.ResultSet;
-import java.sql.SQLException;
+import java.math.BigDecimal;
+import java.sql.Types;
 import java.time.Duration;
 import java.util.*;
-import java.util.stream.Collectors;
 
 @Service
 @Slf4j
 public class RecipeServiceImpl implements RecipeService {
 
+    /**
+     * Projection of a full record plus the ids of its ingredients, mapped with {@link #withParts}.
+     * PostgreSQL evaluates the sub-select only for the rows that survive {@code LIMIT}.
+     */
+    private static final String DETAIL_COLUMNS = RecipeRowMapper.FULL_COLUMNS +
+            ", ARRAY(SELECT ri.IngredientId FROM recipe_ingredients ri JOIN ingredients i ON i.IngredientId = ri.IngredientId " +
+            "WHERE ri.RecipeId = r.RecipeId ORDER BY i.Name) AS parts";
+
+    /**
+     * Array element types of {@code RecipeId} followed by the columns of {@link #insertArgs},
+     * for the multi-row insert of {@code createRecipes}.
+     */
+    private static final String[] INSERT_ARRAY_TYPES = {
+            "bigint", "text", "bigint", "text", "text", "text", "timestamp", "text", "text",
+            "float4", "integer",
+            "float4", "float4", "float4", "float4", "float4", "float4", "float4", "float4", "float4",
+            "text", "text", "numeric", "numeric", "numeric", "integer"
+    };
+
     @Autowired
     @SuppressWarnings("SpringJavaInjectionPointsAutowiringInspection")
     private JdbcTemplate jdbcTemplate;
 
+    @Autowired
+    private RecipeCache recipeCache;
+
+    @Autowired
+    private TombstoneReaper tombstoneReaper;
+
+    @Autowired
+    private IdBlockAllocator idBlockAllocator;
+
+    @Autowired
+    private CaloriePairIndex caloriePairIndex;
+
+    @Autowired
+    private IngredientDictionary ingredientDictionary;
+
+    @Autowired
+    private IngredientBitmapIndex ingredientBitmapIndex;
+
+    @Autowired
+    private RecipeExistenceCache recipeExistenceCache;
+
+    @Autowired
+    private ReviewPageCache reviewPageCache;
+
     @Override
     public String getNameFromID(long id) {
-        String sql = "SELECT Name FROM recipes WHERE RecipeId = ?";
+        return recipeCache.getName(id, this::loadName);
+    }
+
+    @Override
+    public RecipeRecord getRecipeById(long recipeId) {
+        return recipeCache.getRecord(recipeId, this::loadRecipe);
+    }
+
+    @Override
+    public List<RecipeRecord> getRecipesByIds(List<Long> recipeIds) {
+        if (recipeIds == null) {
+            throw new IllegalArgumentException("recipeIds cannot be null");
+        }
+        return recipeCache.getRecords(recipeIds, this::loadRecipes);
+    }
+
+    @Override
+    public List<String> getNamesFromIDs(List<Long> ids) {
+        if (ids == null) {
+            throw new IllegalArgumentException("ids cannot be null");
+        }
+        return recipeCache.getNames(ids, this::loadNames);
+    }
+
+    private String loadName(long id) {
+        String sql = "SELECT Name FROM recipes WHERE RecipeId = ? AND NOT IsDeleted";
         try {
             return jdbcTemplate.queryForObject(sql, String.class, id);
         } catch (EmptyResultDataAccessException e) {
@@ -33,11 +104,30 @@ public class RecipeServiceImpl implements RecipeService {
         }
     }
 
-    @Override
-    public RecipeRecord getRecipeById(long recipeId) {
-        String sql = "SELECT r.*, u.AuthorName FROM recipes r JOIN users u ON r.AuthorId = u.AuthorId WHERE r.RecipeId = ?";
+    private Map<Long, String> loadNames(Set<Long> ids) {
+        Map<Long, String> names = new HashMap<>();
+        jdbcTemplate.query("SELECT RecipeId, Name FROM recipes WHERE RecipeId = ANY(?) AND NOT IsDeleted",
+                ps -> SqlArrays.setLongs(ps, 1, ids),
+                rs -> {
+                    names.put(rs.getLong(1), rs.getString(2));
+                });
+        return names;
+    }
+
+    private Map<Long, RecipeRecord> loadRecipes(Set<Long> ids) {
+        String sql = "SELECT " + DETAIL_COLUMNS + " FROM recipes r JOIN users u ON r.AuthorId = u.AuthorId WHERE r.RecipeId = ANY(?) AND NOT r.IsDeleted";
+        List<RecipeRecord> records = jdbcTemplate.query(sql, ps -> SqlArrays.setLongs(ps, 1, ids), withParts(new RecipeRowMapper()));
+        Map<Long, RecipeRecord> byId = new HashMap<>();
+        for (RecipeRecord record : records) {
+            byId.put(record.getRecipeId(), record);
+        }
+        return byId;
+    }
+
+    private RecipeRecord loadRecipe(long recipeId) {
+        String sql = "SELECT " + RecipeRowMapper.FULL_COLUMNS + " FROM recipes r JOIN users u ON r.AuthorId = u.AuthorId WHERE r.RecipeId = ? AND NOT r.IsDeleted";
         try {
-            RecipeRecord record = jdbcTemplate.queryForObject(sql, (rs, rowNum) -> mapToRecipeRecord(rs), recipeId);
+            RecipeRecord record = jdbcTemplate.queryForObject(sql, new RecipeRowMapper(), recipeId);
             if (record != null) {
                 record.setRecipeIngredientParts(getIngredients(recipeId));
             }
@@ -54,82 +144,176 @@ public class RecipeServiceImpl implements RecipeService {
             throw new IllegalArgumentException("Invalid page or size");
         }
 
-        StringBuilder sqlBuilder = new StringBuilder("SELECT r.*, u.AuthorName FROM recipes r JOIN users u ON r.AuthorId = u.AuthorId WHERE 1=1");
+        RecipeSort order = RecipeSort.of(sort);
+
+        StringBuilder filter = new StringBuilder(" FROM recipes r JOIN users u ON r.AuthorId = u.AuthorId WHERE NOT r.IsDeleted");
         List<Object> params = new ArrayList<>();
+        appendFilters(filter, params, keyword, category, minRating);
 
-        if (keyword != null && !keyword.isEmpty()) {
-            sqlBuilder.append(" AND (LOWER(r.Name) LIKE ? OR LOWER(r.Description) LIKE ?)");
-            String pattern = "%" + keyword.toLowerCase() + "%";
-            params.add(pattern);
-            params.add(pattern);
-        }
+        // Count total
+        Long total = jdbcTemplate.queryForObject("SELECT COUNT(*)" + filter, Long.class, params.toArray());
+        if (total == null) total = 0L;
 
-        if (category != null && !category.isEmpty()) {
-            sqlBuilder.append(" AND r.RecipeCategory = ?");
-            params.add(category);
-        }
+        // Description and ingredients come with the page rows, in the same query
+        String sql = "SELECT " + DETAIL_COLUMNS + filter + order.orderBy() + " LIMIT ? OFFSET ?";
+        params.add(size);
+        params.add((page - 1) * size);
 
-        if (minRating != null) {
-            sqlBuilder.append(" AND r.AggregatedRating >= ?");
-            params.add(minRating);
+        List<RecipeRecord> records = jdbcTemplate.query(sql, withParts(new RecipeRowMapper()), params.toArray());
+
+        return new PageResult<>(records, page, size, total);
+    }
+
+    @Override
+    public FacetedPageResult<RecipeRecord> searchRecipesWithFacets(String keyword, String category, Double minRating,
+                                                                   Integer page, Integer size, String sort) {
+        if (page < 1 || size <= 0) {
+            throw new IllegalArgumentException("Invalid page or size");
         }
 
-        // Count total
-        String countSql = "SELECT COUNT(*) FROM (" + sqlBuilder.toString() + ") as temp";
-        Long total = jdbcTemplate.queryForObject(countSql, Long.class, params.toArray());
-        if (total == null) total = 0L;
+        StringBuilder filter = new StringBuilder(" FROM recipes r JOIN users u ON r.AuthorId = u.AuthorId WHERE NOT r.IsDeleted");
+        List<Object> params = new ArrayList<>();
+        appendFilters(filter, params, keyword, category, minRating);
 
-        // Sort
-        if (sort != null) {
-            switch (sort) {
-                case "rating_desc":
-                    sqlBuilder.append(" ORDER BY r.AggregatedRating DESC, r.RecipeId DESC");
-                    break;
-                case "date_desc":
-                    sqlBuilder.append(" ORDER BY r.DatePublished DESC, r.RecipeId DESC");
+        // The category facet ignores the category filter (disjunctive faceting), so the other
+        // categories stay selectable; the rating facet and the total apply every filter.
+        StringBuilder facetFilter = new StringBuilder(" FROM recipes r WHERE NOT r.IsDeleted");
+        List<Object> facetParams = new ArrayList<>();
+        String selected = "TRUE";
+        if (category != null && !category.isEmpty()) {
+            selected = "r.RecipeCategory = ?";
+            facetParams.add(category);
+        }
+        appendFilters(facetFilter, facetParams, keyword, null, minRating);
+
+        // All facets and the total come from one pass over the rows:
+        // GROUPING() is 1 for the category rows, 2 for the rating bucket rows and 3 for the grand total
+        String facetSql = "SELECT f.category, f.bucket, GROUPING(f.category, f.bucket) AS g, " +
+                "CASE WHEN GROUPING(f.category, f.bucket) = 1 THEN COUNT(*) " +
+                "ELSE COUNT(*) FILTER (WHERE f.selected) END AS cnt FROM (" +
+                "SELECT r.RecipeCategory AS category, FLOOR(r.AggregatedRating)::int AS bucket, " + selected + " AS selected" +
+                facetFilter + ") f GROUP BY GROUPING SETS ((f.category), (f.bucket), ()) " +
+                "ORDER BY g, cnt DESC, f.category, f.bucket";
+        Map<String, Long> categoryCounts = new LinkedHashMap<>();
+        Map<Integer, Long> ratingCounts = new TreeMap<>();
+        long[] total = new long[1];
+        jdbcTemplate.query(facetSql, rs -> {
+            long cnt = rs.getLong("cnt");
+            switch (rs.getInt("g")) {
+                case 1:
+                    String c = rs.getString("category");
+                    if (c != null) categoryCounts.put(c, cnt);
                     break;
-                case "calories_asc":
-                    sqlBuilder.append(" ORDER BY r.Calories ASC, r.RecipeId DESC");
+                case 2:
+                    int bucket = rs.getInt("bucket");
+                    if (!rs.wasNull() && cnt > 0) ratingCounts.put(bucket, cnt);
                     break;
                 default:
-                    sqlBuilder.append(" ORDER BY r.RecipeId DESC");
+                    total[0] = cnt;
                     break;
             }
-        } else {
-            sqlBuilder.append(" ORDER BY r.RecipeId DESC");
+        }, facetParams.toArray());
+
+        List<RecipeRecord> records = Collections.emptyList();
+        if (total[0] > (long) (page - 1) * size) {
+            String pageSql = "SELECT " + DETAIL_COLUMNS + filter + RecipeSort.of(sort).orderBy() + " LIMIT ? OFFSET ?";
+            params.add(size);
+            params.add((page - 1) * size);
+            records = jdbcTemplate.query(pageSql, withParts(new RecipeRowMapper()), params.toArray());
         }
 
-        // Pagination
-        sqlBuilder.append(" LIMIT ? OFFSET ?");
-        params.add(size);
-        params.add((page - 1) * size);
+        return new FacetedPageResult<>(new PageResult<>(records, page, size, total[0]), categoryCounts, ratingCounts);
+    }
 
-        List<RecipeRecord> records = jdbcTemplate.query(sqlBuilder.toString(), (rs, rowNum) -> mapToRecipeRecord(rs), params.toArray());
-
-        // Batch populate ingredients to avoid N+1 problem
-        if (!records.isEmpty()) {
-            List<Long> recipeIds = records.stream().map(RecipeRecord::getRecipeId).collect(Collectors.toList());
-            String inSql = String.join(",", Collections.nCopies(recipeIds.size(), "?"));
-            String ingSql = String.format("SELECT RecipeId, IngredientPart FROM recipe_ingredients WHERE RecipeId IN (%s) ORDER BY RecipeId, IngredientPart ASC", inSql);
-
-            Map<Long, List<String>> ingredientsMap = new HashMap<>();
-            jdbcTemplate.query(ingSql, rs -> {
-                long rid = rs.getLong("RecipeId");
-                String part = rs.getString("IngredientPart");
-                ingredientsMap.computeIfAbsent(rid, k -> new ArrayList<>()).add(part);
-            }, recipeIds.toArray());
-
-            for (RecipeRecord record : records) {
-                List<String> parts = ingredientsMap.get(record.getRecipeId());
-                if (parts != null) {
-                    parts.sort(String.CASE_INSENSITIVE_ORDER);
-                    record.setRecipeIngredientParts(parts.toArray(new String[0]));
-                } else {
-                    record.setRecipeIngredientParts(new String[0]);
-                }
+    @Override
+    public CursorPageResult<RecipeRecord> searchRecipesByCursor(String keyword, String category, Double minRating,
+                                                                String cursor, Integer size, String sort) {
+        if (size == null || size <= 0) {
+            throw new IllegalArgumentException("Invalid size");
+        }
+        RecipeSort order = RecipeSort.of(sort);
+
+        StringBuilder sqlBuilder = new StringBuilder("SELECT " + DETAIL_COLUMNS + order.keyColumn() +
+                " FROM recipes r JOIN users u ON r.AuthorId = u.AuthorId WHERE NOT r.IsDeleted");
+        List<Object> params = new ArrayList<>();
+        appendFilters(sqlBuilder, params, keyword, category, minRating);
+        if (cursor != null && !cursor.isEmpty()) {
+            order.appendAfter(sqlBuilder, params, RecipeSort.Cursor.decode(cursor, order));
+        }
+        sqlBuilder.append(order.orderBy());
+
+        // One extra row tells whether another page follows
+        sqlBuilder.append(" LIMIT ?");
+        params.add(size + 1);
+
+        List<Object> keys = new ArrayList<>();
+        RowMapper<RecipeRecord> mapper = withParts(new RecipeRowMapper());
+        boolean keyed = !order.keyColumn().isEmpty();
+        List<RecipeRecord> records = jdbcTemplate.query(sqlBuilder.toString(), (rs, rowNum) -> {
+            keys.add(keyed ? rs.getObject("sort_key") : null);
+            return mapper.mapRow(rs, rowNum);
+        }, params.toArray());
+
+        String next = null;
+        if (records.size() > size) {
+            records = new ArrayList<>(records.subList(0, size));
+            RecipeRecord last = records.get(size - 1);
+            next = new RecipeSort.Cursor(order, keys.get(size - 1), last.getRecipeId()).encode();
+        }
+
+        return new CursorPageResult<>(records, size, next);
+    }
+
+    @Override
+    public PageResult<RecipeRecord> searchRecipesByIngredients(List<String> includeAll, List<String> excludeAny,
+                                                               String category, Double minRating,
+                                                               Integer page, Integer size, String sort) {
+        if (page < 1 || size <= 0) {
+            throw new IllegalArgumentException("Invalid page or size");
+        }
+        requireNoNullIngredients(includeAll);
+        requireNoNullIngredients(excludeAny);
+        PageResult<RecipeRecord> empty = new PageResult<>(Collections.emptyList(), page, size, 0L);
+
+        Collection<Integer> excludeIds = excludeAny == null || excludeAny.isEmpty()
+                ? Collections.emptyList() : ingredientDictionary.lookup(excludeAny).values();
+
+        StringBuilder filter = new StringBuilder(" FROM recipes r JOIN users u ON r.AuthorId = u.AuthorId WHERE NOT r.IsDeleted");
+        List<Object> params = new ArrayList<>();
+        if (includeAll != null && !includeAll.isEmpty()) {
+            Set<String> wanted = new HashSet<>(includeAll);
+            Map<String, Integer> includeIds = ingredientDictionary.lookup(wanted);
+            if (includeIds.size() < wanted.size()) {
+                // an unknown ingredient is used by no recipe
+                return empty;
+            }
+            Roaring64Bitmap candidates = ingredientBitmapIndex.containingAll(includeIds.values());
+            if (!excludeIds.isEmpty()) {
+                candidates.andNot(ingredientBitmapIndex.containingAny(excludeIds));
+            }
+            if (candidates.isEmpty()) {
+                return empty;
             }
+            // primitive arrays are bound as PostgreSQL arrays by the driver
+            filter.append(" AND r.RecipeId = ANY(?)");
+            params.add(candidates.toArray());
+        } else if (!excludeIds.isEmpty()) {
+            // the excluded recipes can be most of the table; bind the few ingredient ids instead of their ids
+            filter.append(" AND NOT EXISTS (SELECT 1 FROM recipe_ingredients ri " +
+                    "WHERE ri.RecipeId = r.RecipeId AND ri.IngredientId = ANY(?))");
+            params.add(excludeIds.stream().mapToInt(Integer::intValue).toArray());
         }
+        appendFilters(filter, params, null, category, minRating);
 
+        Long total = jdbcTemplate.queryForObject("SELECT COUNT(*)" + filter, Long.class, params.toArray());
+        if (total == null || total <= (long) (page - 1) * size) {
+            return new PageResult<>(Collections.emptyList(), page, size, total == null ? 0L : total);
+        }
+
+        String sql = "SELECT " + DETAIL_COLUMNS + filter + RecipeSort.of(sort).orderBy() + " LIMIT ? OFFSET ?";
+        params.add(size);
+        params.add((page - 1) * size);
+        List<RecipeRecord> records = jdbcTemplate.query(sql, withParts(new RecipeRowMapper()), params.toArray());
         return new PageResult<>(records, page, size, total);
     }
 
@@ -141,53 +325,127 @@ public class RecipeServiceImpl implements RecipeService {
             throw new IllegalArgumentException("Recipe name cannot be empty");
         }
 
-        String sql = "INSERT INTO recipes (Name, AuthorId, CookTime, PrepTime, TotalTime, DatePublished, " +
+        // Recipe row and ingredient parts are written by one statement: the second CTE
+        // attaches the deduplicated parts to the id returned by the first one
+        String sql = "WITH ins AS (" +
+                "INSERT INTO recipes (RecipeId, Name, AuthorId, CookTime, PrepTime, TotalTime, DatePublished, " +
                 "Description, RecipeCategory, AggregatedRating, ReviewCount, Calories, FatContent, SaturatedFatContent, " +
                 "CholesterolContent, SodiumContent, CarbohydrateContent, FiberContent, SugarContent, ProteinContent, " +
-                "RecipeServings, RecipeYield) VALUES (?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?) RETURNING RecipeId";
+                "RecipeServings, RecipeYield, CookTimeSec, PrepTimeSec, TotalTimeSec, IngredientCount) " +
+                "VALUES (?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?) RETURNING RecipeId, Calories" +
+                "), parts AS (" +
+                "INSERT INTO recipe_ingredients (RecipeId, IngredientId) " +
+                "SELECT ins.RecipeId, p FROM ins, unnest(?::int[]) AS p" +
+                ") SELECT RecipeId, Calories FROM ins";
+
+        Set<String> parts = distinctParts(dto.getRecipeIngredientParts());
+        Collection<Integer> partIds = ingredientDictionary.intern(parts).values();
+        Object[] args = insertArgs(dto, auth.getAuthorId(), new java.sql.Timestamp(System.currentTimeMillis()), parts.size());
+        Object[] row = new Object[args.length + 1];
+        row[0] = idBlockAllocator.next(IdBlockAllocator.Table.RECIPES);
+        System.arraycopy(args, 0, row, 1, args.length);
+
+        long[] newId = new long[1];
+        jdbcTemplate.query(sql, ps -> {
+            new ArgumentPreparedStatementSetter(row).setValues(ps);
+            SqlArrays.setInts(ps, row.length + 1, partIds);
+        }, rs -> {
+            newId[0] = rs.getLong(1);
+            caloriePairIndex.added(newId[0], rs.getBigDecimal(2));
+            ingredientBitmapIndex.added(newId[0], partIds);
+        });
 
-        // Calculate TotalTime if possible
-        String totalTime = dto.getTotalTime();
-        if (dto.getCookTime() != null && dto.getPrepTime() != null) {
-            try {
-                Duration cook = Duration.parse(dto.getCookTime());
-                Duration prep = Duration.parse(dto.getPrepTime());
-                totalTime = cook.plus(prep).toString();
-            } catch (Exception ignored) {}
+        if (newId[0] != 0L) {
+            recipeCache.invalidate(newId[0]);
+            recipeExistenceCache.added(newId[0]);
         }
+        return newId[0];
+    }
 
-        Long newId = jdbcTemplate.queryForObject(sql, Long.class,
-                dto.getName(),
-                auth.getAuthorId(),
-                dto.getCookTime(),
-                dto.getPrepTime(),
-                totalTime,
-                new java.sql.Timestamp(System.currentTimeMillis()), // DatePublished
-                dto.getDescription(),
-                dto.getRecipeCategory(),
-                0.0f, // AggregatedRating
-                0, // ReviewCount
-                dto.getCalories(),
-                dto.getFatContent(),
-                dto.getSaturatedFatContent(),
-                dto.getCholesterolContent(),
-                dto.getSodiumContent(),
-                dto.getCarbohydrateContent(),
-                dto.getFiberContent(),
-                dto.getSugarContent(),
-                dto.getProteinContent(),
-                String.valueOf(dto.getRecipeServings()),
-                dto.getRecipeYield()
-        );
+    @Override
+    @Transactional
+    public List<Long> createRecipes(List<RecipeRecord> dtos, AuthInfo auth) {
+        validateUser(auth);
+        if (dtos == null) {
+            throw new IllegalArgumentException("Recipe list cannot be null");
+        }
+        for (RecipeRecord dto : dtos) {
+            if (dto == null || dto.getName() == null || dto.getName().isEmpty()) {
+                throw new IllegalArgumentException("Recipe name cannot be empty");
+            }
+        }
+        if (dtos.isEmpty()) {
+            return new ArrayList<>();
+        }
 
-        if (newId != null && dto.getRecipeIngredientParts() != null) {
-            String ingSql = "INSERT INTO recipe_ingredients (RecipeId, IngredientPart) VALUES (?, ?)";
-            for (String part : dto.getRecipeIngredientParts()) {
-                jdbcTemplate.update(ingSql, newId, part);
+        List<Long> ids = idBlockAllocator.next(IdBlockAllocator.Table.RECIPES, dtos.size());
+
+        List<Set<String>> partsPerRecipe = new ArrayList<>(dtos.size());
+        Set<String> allParts = new HashSet<>();
+        for (RecipeRecord dto : dtos) {
+            Set<String> parts = distinctParts(dto.getRecipeIngredientParts());
+            partsPerRecipe.add(parts);
+            allParts.addAll(parts);
+        }
+        Map<String, Integer> partIds = ingredientDictionary.intern(allParts);
+
+        java.sql.Timestamp now = new java.sql.Timestamp(System.currentTimeMillis());
+        // column-wise values for unnest: one array per recipes column, in INSERT_ARRAY_TYPES order
+        List<List<Object>> columns = new ArrayList<>(INSERT_ARRAY_TYPES.length);
+        for (int c = 0; c < INSERT_ARRAY_TYPES.length; c++) {
+            columns.add(new ArrayList<>(dtos.size()));
+        }
+        List<Long> ingredientRecipeIds = new ArrayList<>();
+        List<Integer> ingredientIds = new ArrayList<>();
+        for (int i = 0; i < dtos.size(); i++) {
+            RecipeRecord dto = dtos.get(i);
+            long id = ids.get(i);
+            Set<String> parts = partsPerRecipe.get(i);
+            Object[] args = insertArgs(dto, auth.getAuthorId(), now, parts.size());
+            columns.get(0).add(id);
+            for (int c = 0; c < args.length; c++) {
+                Object value = args[c];
+                columns.get(c + 1).add(value instanceof SqlParameterValue ? ((SqlParameterValue) value).getValue() : value);
             }
+            List<Integer> recipePartIds = new ArrayList<>(parts.size());
+            for (String part : parts) {
+                ingredientRecipeIds.add(id);
+                ingredientIds.add(partIds.get(part));
+                recipePartIds.add(partIds.get(part));
+            }
+            ingredientBitmapIndex.added(id, recipePartIds);
+        }
+
+        // One statement for all recipes and their ingredient rows, like createRecipe
+        StringBuilder arrays = new StringBuilder();
+        for (String type : INSERT_ARRAY_TYPES) {
+            arrays.append(arrays.length() == 0 ? "" : ", ").append("?::").append(type).append("[]");
         }
+        // the stored calories come back from the insert, so the calorie index needs no lookup of its own
+        String sql = "WITH ins AS (" +
+                "INSERT INTO recipes (RecipeId, Name, AuthorId, CookTime, PrepTime, TotalTime, DatePublished, " +
+                "Description, RecipeCategory, AggregatedRating, ReviewCount, Calories, FatContent, SaturatedFatContent, " +
+                "CholesterolContent, SodiumContent, CarbohydrateContent, FiberContent, SugarContent, ProteinContent, " +
+                "RecipeServings, RecipeYield, CookTimeSec, PrepTimeSec, TotalTimeSec, IngredientCount) " +
+                "SELECT * FROM unnest(" + arrays + ") RETURNING RecipeId, Calories" +
+                "), parts AS (" +
+                "INSERT INTO recipe_ingredients (RecipeId, IngredientId) SELECT * FROM unnest(?::bigint[], ?::int[])" +
+                ") SELECT RecipeId, Calories FROM ins";
+        jdbcTemplate.query(sql, ps -> {
+            for (int c = 0; c < INSERT_ARRAY_TYPES.length; c++) {
+                SqlArrays.set(ps, c + 1, INSERT_ARRAY_TYPES[c], columns.get(c));
+            }
+            SqlArrays.setLongs(ps, INSERT_ARRAY_TYPES.length + 1, ingredientRecipeIds);
+            SqlArrays.setInts(ps, INSERT_ARRAY_TYPES.length + 2, ingredientIds);
+        }, rs -> {
+            caloriePairIndex.added(rs.getLong(1), rs.getBigDecimal(2));
+        });
 
-        return newId != null ? newId : 0L;
+        for (Long id : ids) {
+            recipeCache.invalidate(id);
+        }
+        recipeExistenceCache.addedAll(ids);
+        return ids;
     }
 
     @Override
@@ -196,71 +454,135 @@ public class RecipeServiceImpl implements RecipeService {
         validateUser(auth);
         checkOwnership(recipeId, auth.getAuthorId());
 
-        // Delete dependencies
-        // 1. Review Likes
-        jdbcTemplate.update("DELETE FROM review_likes WHERE ReviewId IN (SELECT ReviewId FROM reviews WHERE RecipeId = ?)", recipeId);
-        // 2. Reviews
-        jdbcTemplate.update("DELETE FROM reviews WHERE RecipeId = ?", recipeId);
-        // 3. Ingredients
-        jdbcTemplate.update("DELETE FROM recipe_ingredients WHERE RecipeId = ?", recipeId);
-        // 4. Recipe
-        jdbcTemplate.update("DELETE FROM recipes WHERE RecipeId = ?", recipeId);
+        // Only the tombstone is written here; ingredients, reviews and likes are purged by the reaper
+        jdbcTemplate.update("UPDATE recipes SET IsDeleted = TRUE WHERE RecipeId = ?", recipeId);
+        recipeCache.invalidate(recipeId);
+        caloriePairIndex.removed(recipeId);
+        ingredientBitmapIndex.removed(recipeId);
+        recipeExistenceCache.removed(recipeId);
+        // cached review pages of the recipe must not be served any more
+        reviewPageCache.bump(recipeId);
+        tombstoneReaper.recipeDeleted(recipeId);
     }
 
     @Override
     @Transactional
     public void updateTimes(AuthInfo auth, long recipeId, String cookTimeIso, String prepTimeIso) {
         validateUser(auth);
-        checkOwnership(recipeId, auth.getAuthorId());
 
         if (cookTimeIso == null && prepTimeIso == null) {
+            checkOwnership(recipeId, auth.getAuthorId());
             return;
         }
 
-        // Fetch current times if one is null
-        String currentCookTime = null;
-        String currentPrepTime = null;
-
+        Duration cook;
+        Duration prep;
         try {
-            Map<String, Object> times = jdbcTemplate.queryForMap("SELECT CookTime, PrepTime FROM recipes WHERE RecipeId = ?", recipeId);
-            currentCookTime = (String) times.get("CookTime");
-            currentPrepTime = (String) times.get("PrepTime");
-        } catch (EmptyResultDataAccessException e) {
-             throw new IllegalArgumentException("Recipe not found");
+            cook = cookTimeIso != null && !cookTimeIso.isEmpty() ? IsoDurations.parse(cookTimeIso) : null;
+            prep = prepTimeIso != null && !prepTimeIso.isEmpty() ? IsoDurations.parse(prepTimeIso) : null;
+        } catch (IllegalArgumentException e) {
+            // a caller who does not own the recipe gets SecurityException regardless of the input
+            checkOwnership(recipeId, auth.getAuthorId());
+            throw e;
+        }
+        if ((cook != null && cook.isNegative()) || (prep != null && prep.isNegative())) {
+            checkOwnership(recipeId, auth.getAuthorId());
+            throw new IllegalArgumentException("Duration cannot be negative");
         }
 
-        String newCookTime = cookTimeIso != null ? cookTimeIso : currentCookTime;
-        String newPrepTime = prepTimeIso != null ? prepTimeIso : currentPrepTime;
+        // The side that is not updated comes from the stored seconds; the ownership check,
+        // the validation of the stored side and the new TotalTime are all part of one statement
+        StringBuilder select = new StringBuilder("SELECT RecipeId");
+        List<Object> params = new ArrayList<>();
+        appendTimeColumns(select, params, "CookTime", "cook", cookTimeIso, cook);
+        appendTimeColumns(select, params, "PrepTime", "prep", prepTimeIso, prep);
+        select.append(" FROM recipes WHERE RecipeId = ? AND AuthorId = ? AND NOT IsDeleted");
+        params.add(recipeId);
+        params.add(auth.getAuthorId());
+
+        String total = "v.cook + v.prep";
+        String sql = "UPDATE recipes r SET CookTime = v.cook_iso, PrepTime = v.prep_iso, " +
+                "CookTimeSec = v.cook_sec, PrepTimeSec = v.prep_sec, TotalTimeSec = " + total + ", " +
+                "TotalTime = " + IsoDurations.formatSql(total) +
+                " FROM (" + select + ") v " +
+                "WHERE r.RecipeId = v.RecipeId AND v.cook >= 0 AND v.prep >= 0 AND " + total + " <= " + Long.MAX_VALUE;
+
+        if (jdbcTemplate.update(sql, params.toArray()) == 0) {
+            checkOwnership(recipeId, auth.getAuthorId());
+            // the kept side is stored as an invalid, negative or too long duration
+            throw new IllegalArgumentException("Invalid duration format");
+        }
+        recipeCache.invalidate(recipeId);
+    }
 
-        Duration cook = Duration.ZERO;
-        Duration prep = Duration.ZERO;
+    /**
+     * Selects {@code <alias>_iso}, {@code <alias>_sec} and the effective seconds {@code <alias>}
+     * (an empty duration counts as zero) of one time column, either from the new value or from the row.
+     */
+    private void appendTimeColumns(StringBuilder sql, List<Object> params, String column, String alias,
+                                   String iso, Duration parsed) {
+        if (iso != null) {
+            BigDecimal seconds = parsed == null ? null : IsoDurations.toSeconds(parsed);
+            sql.append(", ?::text AS ").append(alias).append("_iso")
+                    .append(", ?::numeric AS ").append(alias).append("_sec")
+                    .append(", COALESCE(?::numeric, 0) AS ").append(alias);
+            params.add(iso);
+            params.add(seconds);
+            params.add(seconds);
+        } else {
+            sql.append(", ").append(column).append(" AS ").append(alias).append("_iso")
+                    .append(", ").append(column).append("Sec AS ").append(alias).append("_sec")
+                    .append(", CASE WHEN ").append(column).append(" IS NULL OR ").append(column).append(" = '' THEN 0 ELSE ")
+                    .append(column).append("Sec END AS ").append(alias);
+        }
+    }
 
-        try {
-            if (newCookTime != null && !newCookTime.isEmpty()) cook = Duration.parse(newCookTime);
-            if (newPrepTime != null && !newPrepTime.isEmpty()) prep = Duration.parse(newPrepTime);
-        } catch (Exception e) {
-            throw new IllegalArgumentException("Invalid duration format");
+    @Override
+    public PageResult<RecipeRecord> searchRecipesByTotalTime(String minTotalTime, String maxTotalTime,
+                                                             Integer page, Integer size) {
+        if (page < 1 || size <= 0) {
+            throw new IllegalArgumentException("Invalid page or size");
         }
 
-        if (cook.isNegative() || prep.isNegative()) {
-            throw new IllegalArgumentException("Duration cannot be negative");
+        StringBuilder filter = new StringBuilder(" FROM recipes r JOIN users u ON r.AuthorId = u.AuthorId " +
+                "WHERE NOT r.IsDeleted AND r.TotalTimeSec IS NOT NULL");
+        List<Object> params = new ArrayList<>();
+        if (minTotalTime != null) {
+            filter.append(" AND r.TotalTimeSec >= ?");
+            params.add(IsoDurations.toSeconds(IsoDurations.parse(minTotalTime)));
+        }
+        if (maxTotalTime != null) {
+            filter.append(" AND r.TotalTimeSec <= ?");
+            params.add(IsoDurations.toSeconds(IsoDurations.parse(maxTotalTime)));
         }
 
-        String totalTime = cook.plus(prep).toString();
+        Long total = jdbcTemplate.queryForObject("SELECT COUNT(*)" + filter, Long.class, params.toArray());
+        if (total == null) total = 0L;
 
-        jdbcTemplate.update("UPDATE recipes SET CookTime = ?, PrepTime = ?, TotalTime = ? WHERE RecipeId = ?",
-                newCookTime, newPrepTime, totalTime, recipeId);
+        List<RecipeRecord> records = Collections.emptyList();
+        if (total > (long) (page - 1) * size) {
+            String sql = "SELECT " + DETAIL_COLUMNS + filter +
+                    " ORDER BY r.TotalTimeSec ASC, r.RecipeId ASC LIMIT ? OFFSET ?";
+            params.add(size);
+            params.add((page - 1) * size);
+            records = jdbcTemplate.query(sql, withParts(new RecipeRowMapper()), params.toArray());
+        }
+        return new PageResult<>(records, page, size, total);
     }
 
     @Override
     public Map<String, Object> getClosestCaloriePair() {
+        if (caloriePairIndex.isEnabled()) {
+            return caloriePairIndex.getClosestPair();
+        }
+
         // Optimized using window functions to avoid O(N^2) cross join
         String sql = "WITH SortedRecipes AS (" +
                 "    SELECT RecipeId, Calories, " +
                 "           LAG(Calories) OVER (ORDER BY Calories ASC, RecipeId ASC) as PrevCalories, " +
                 "           LAG(RecipeId) OVER (ORDER BY Calories ASC, RecipeId ASC) as PrevRecipeId " +
                 "    FROM recipes " +
-                "    WHERE Calories IS NOT NULL " +
+                "    WHERE Calories IS NOT NULL AND NOT IsDeleted " +
                 ") " +
                 "SELECT " +
                 "    CASE WHEN RecipeId < PrevRecipeId THEN RecipeId ELSE PrevRecipeId END as RecipeA, " +
@@ -290,19 +612,57 @@ public class RecipeServiceImpl implements RecipeService {
 
     @Override
     public List<Map<String, Object>> getTop3MostComplexRecipesByIngredients() {
-        String sql = "SELECT r.RecipeId, r.Name, COUNT(ri.IngredientPart) as cnt " +
-                "FROM recipes r JOIN recipe_ingredients ri ON r.RecipeId = ri.RecipeId " +
-                "GROUP BY r.RecipeId, r.Name " +
-                "ORDER BY cnt DESC, r.RecipeId ASC " +
-                "LIMIT 3";
+        return getTopKMostComplexRecipesByIngredients(3);
+    }
+
+    @Override
+    public List<Map<String, Object>> getTopKMostComplexRecipesByIngredients(int k) {
+        if (k <= 0) {
+            throw new IllegalArgumentException("k must be positive");
+        }
+        // Reads the first k entries of idx_recipes_ingredient_count instead of grouping recipe_ingredients
+        String sql = "SELECT RecipeId, Name, IngredientCount FROM recipes " +
+                "WHERE NOT IsDeleted AND IngredientCount > 0 " +
+                "ORDER BY IngredientCount DESC, RecipeId ASC " +
+                "LIMIT ?";
 
         return jdbcTemplate.query(sql, (rs, rowNum) -> {
             Map<String, Object> map = new HashMap<>();
             map.put("RecipeId", rs.getLong("RecipeId"));
             map.put("Name", rs.getString("Name"));
-            map.put("IngredientCount", rs.getInt("cnt"));
+            map.put("IngredientCount", rs.getInt("IngredientCount"));
             return map;
-        });
+        }, k);
+    }
+
+    private static void requireNoNullIngredients(List<String> ingredients) {
+        if (ingredients != null) {
+            for (String ingredient : ingredients) {
+                if (ingredient == null) {
+                    throw new IllegalArgumentException("Ingredient cannot be null");
+                }
+            }
+        }
+    }
+
+    private void appendFilters(StringBuilder sqlBuilder, List<Object> params,
+                               String keyword, String category, Double minRating) {
+        if (keyword != null && !keyword.isEmpty()) {
+            sqlBuilder.append(" AND (LOWER(r.Name) LIKE ? OR LOWER(r.Description) LIKE ?)");
+            String pattern = "%" + keyword.toLowerCase() + "%";
+            params.add(pattern);
+            params.add(pattern);
+        }
+
+        if (category != null && !category.isEmpty()) {
+            sqlBuilder.append(" AND r.RecipeCategory = ?");
+            params.add(category);
+        }
+
+        if (minRating != null) {
+            sqlBuilder.append(" AND r.AggregatedRating >= ?");
+            params.add(minRating);
+        }
     }
 
     private void validateUser(AuthInfo auth) {
@@ -326,7 +686,7 @@ public class RecipeServiceImpl implements RecipeService {
     }
 
     private void checkOwnership(long recipeId, long authorId) {
-        String sql = "SELECT AuthorId FROM recipes WHERE RecipeId = ?";
+        String sql = "SELECT AuthorId FROM recipes WHERE RecipeId = ? AND NOT IsDeleted";
         try {
             Long ownerId = jdbcTemplate.queryForObject(sql, Long.class, recipeId);
             if (ownerId == null || ownerId != authorId) {
@@ -337,45 +697,81 @@ public class RecipeServiceImpl implements RecipeService {
         }
     }
 
-    private String[] getIngredients(long recipeId) {
-        String sql = "SELECT IngredientPart FROM recipe_ingredients WHERE RecipeId = ? ORDER BY IngredientPart ASC";
-        List<String> ingredients = jdbcTemplate.queryForList(sql, String.class, recipeId);
-        ingredients.sort(String.CASE_INSENSITIVE_ORDER);
-        return ingredients.toArray(new String[0]);
+    /**
+     * Column values of a new recipe in the order
+     * {@code Name, AuthorId, CookTime, PrepTime, TotalTime, DatePublished, Description, ..., RecipeYield,
+     * CookTimeSec, PrepTimeSec, TotalTimeSec, IngredientCount}.
+     */
+    private Object[] insertArgs(RecipeRecord dto, long authorId, java.sql.Timestamp datePublished, int ingredientCount) {
+        // Calculate TotalTime if possible
+        String totalTime = dto.getTotalTime();
+        Duration cook = IsoDurations.tryParse(dto.getCookTime());
+        Duration prep = IsoDurations.tryParse(dto.getPrepTime());
+        if (cook != null && prep != null) {
+            try {
+                totalTime = cook.plus(prep).toString();
+            } catch (ArithmeticException ignored) {}
+        }
+
+        return new Object[]{
+                dto.getName(),
+                authorId,
+                dto.getCookTime(),
+                dto.getPrepTime(),
+                totalTime,
+                datePublished,
+                dto.getDescription(),
+                dto.getRecipeCategory(),
+                0.0f, // AggregatedRating
+                0, // ReviewCount
+                dto.getCalories(),
+                dto.getFatContent(),
+                dto.getSaturatedFatContent(),
+                dto.getCholesterolContent(),
+                dto.getSodiumContent(),
+                dto.getCarbohydrateContent(),
+                dto.getFiberContent(),
+                dto.getSugarContent(),
+                dto.getProteinContent(),
+                String.valueOf(dto.getRecipeServings()),
+                dto.getRecipeYield(),
+                new SqlParameterValue(Types.NUMERIC, cook == null ? null : IsoDurations.toSeconds(cook)),
+                new SqlParameterValue(Types.NUMERIC, prep == null ? null : IsoDurations.toSeconds(prep)),
+                new SqlParameterValue(Types.NUMERIC, IsoDurations.secondsOrNull(totalTime)),
+                ingredientCount
+        };
     }
 
-    private RecipeRecord mapToRecipeRecord(ResultSet rs) throws SQLException {
-        RecipeRecord record = new RecipeRecord();
-        record.setRecipeId(rs.getLong("RecipeId"));
-        record.setName(rs.getString("Name"));
-        record.setAuthorId(rs.getLong("AuthorId"));
-        record.setAuthorName(rs.getString("AuthorName"));
-        record.setCookTime(rs.getString("CookTime"));
-        record.setPrepTime(rs.getString("PrepTime"));
-        record.setTotalTime(rs.getString("TotalTime"));
-        record.setDatePublished(rs.getTimestamp("DatePublished"));
-        record.setDescription(rs.getString("Description"));
-        record.setRecipeCategory(rs.getString("RecipeCategory"));
-        record.setAggregatedRating(rs.getFloat("AggregatedRating"));
-        record.setReviewCount(rs.getInt("ReviewCount"));
-        record.setCalories(rs.getFloat("Calories"));
-        record.setFatContent(rs.getFloat("FatContent"));
-        record.setSaturatedFatContent(rs.getFloat("SaturatedFatContent"));
-        record.setCholesterolContent(rs.getFloat("CholesterolContent"));
-        record.setSodiumContent(rs.getFloat("SodiumContent"));
-        record.setCarbohydrateContent(rs.getFloat("CarbohydrateContent"));
-        record.setFiberContent(rs.getFloat("FiberContent"));
-        record.setSugarContent(rs.getFloat("SugarContent"));
-        record.setProteinContent(rs.getFloat("ProteinContent"));
-        try {
-            String servings = rs.getString("RecipeServings");
-            if (servings != null && !servings.isEmpty() && !servings.equals("null")) {
-                 record.setRecipeServings(Integer.parseInt(servings));
+    /**
+     * Drops {@code null} and repeated parts, which would violate the {@code (RecipeId, IngredientId)} key.
+     */
+    private Set<String> distinctParts(String[] parts) {
+        Set<String> distinct = new LinkedHashSet<>();
+        if (parts != null) {
+            for (String part : parts) {
+                if (part != null) {
+                    distinct.add(part);
+                }
             }
-        } catch (NumberFormatException e) {
-            // ignore
         }
-        record.setRecipeYield(rs.getString("RecipeYield"));
-        return record;
+        return distinct;
+    }
+
+    private String[] getIngredients(long recipeId) {
+        String sql = "SELECT ri.IngredientId FROM recipe_ingredients ri JOIN ingredients i ON i.IngredientId = ri.IngredientId " +
+                "WHERE ri.RecipeId = ? ORDER BY i.Name";
+        List<Integer> ids = jdbcTemplate.queryForList(sql, Integer.class, recipeId);
+        return ingredientDictionary.decodeSorted(ids.toArray(new Integer[0]));
+    }
+
+    /**
+     * Maps the ingredient ids selected by {@link #DETAIL_COLUMNS} to the ingredient parts of the record.
+     */
+    private RowMapper<RecipeRecord> withParts(RowMapper<RecipeRecord> mapper) {
+        return (rs, rowNum) -> {
+            RecipeRecord record = mapper.mapRow(rs, rowNum);
+            record.setRecipeIngredientParts(ingredientDictionary.decodeSorted((Integer[]) rs.getArray("parts").getArray()));
+            return record;
+        };
     }
 }
\ No newline at end of file
@@ -0,0 +1,171 @@
+package io.sustc.service.impl;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.util.Base64;
+import java.util.List;
+
+/**
+ * Sort modes of recipe searches, shared by the page-number and the cursor-based variants.
+ *
+ * <p>Every mode orders by its sort key and breaks ties with {@code RecipeId DESC}, so
+ * {@code (key, RecipeId)} of the last returned row identifies the position of a cursor.
+ * PostgreSQL sorts {@code NULL} first for {@code DESC} and last for {@code ASC}; the keyset
+ * predicates below follow the same placement. Each keyed mode has a matching
+ * {@code (key, RecipeId)} index, so a deep page starts scanning right at the cursor.
+ */
+enum RecipeSort {
+
+    RATING_DESC("rating_desc", "r.AggregatedRating", true),
+    DATE_DESC("date_desc", "r.DatePublished", true),
+    CALORIES_ASC("calories_asc", "r.Calories", false),
+    ID_DESC("id_desc", null, true);
+
+    private final String name;
+
+    private final String key;
+
+    private final boolean descending;
+
+    RecipeSort(String name, String key, boolean descending) {
+        this.name = name;
+        this.key = key;
+        this.descending = descending;
+    }
+
+    /**
+     * Unknown or {@code null} sort criteria fall back to {@link #ID_DESC}.
+     */
+    static RecipeSort of(String sort) {
+        if (sort != null) {
+            for (RecipeSort s : values()) {
+                if (s.name.equals(sort)) {
+                    return s;
+                }
+            }
+        }
+        return ID_DESC;
+    }
+
+    String orderBy() {
+        if (key == null) {
+            return " ORDER BY r.RecipeId DESC";
+        }
+        return " ORDER BY " + key + (descending ? " DESC" : " ASC") + ", r.RecipeId DESC";
+    }
+
+    /**
+     * Extra select item carrying the raw sort key, or an empty string if the mode only sorts by id.
+     */
+    String keyColumn() {
+        return key == null ? "" : ", " + key + " AS sort_key";
+    }
+
+    /**
+     * Appends the predicate selecting the rows strictly after the cursor position.
+     */
+    void appendAfter(StringBuilder sql, List<Object> params, Cursor cursor) {
+        if (key == null) {
+            sql.append(" AND r.RecipeId < ?");
+            params.add(cursor.recipeId);
+            return;
+        }
+        Object last = cursor.key;
+        if (descending) {
+            if (last == null) {
+                sql.append(" AND ((").append(key).append(" IS NULL AND r.RecipeId < ?) OR ").append(key).append(" IS NOT NULL)");
+                params.add(cursor.recipeId);
+            } else {
+                // both columns descend, so the row comparison is an index seek; NULL keys sort before any cursor
+                sql.append(" AND (").append(key).append(", r.RecipeId) < (?, ?)");
+                params.add(last);
+                params.add(cursor.recipeId);
+            }
+        } else {
+            if (last == null) {
+                sql.append(" AND ").append(key).append(" IS NULL AND r.RecipeId < ?");
+                params.add(cursor.recipeId);
+            } else {
+                // mixed directions rule out a row comparison
+                sql.append(" AND (").append(key).append(" > ? OR (").append(key).append(" = ? AND r.RecipeId < ?) OR ")
+                        .append(key).append(" IS NULL)");
+                params.add(last);
+                params.add(last);
+                params.add(cursor.recipeId);
+            }
+        }
+    }
+
+    /**
+     * Position of the last row of a page: the raw sort key (a {@link BigDecimal}, a {@link Timestamp}
+     * or {@code null}) and the recipe id.
+     */
+    static final class Cursor {
+
+        final RecipeSort sort;
+
+        final Object key;
+
+        final long recipeId;
+
+        Cursor(RecipeSort sort, Object key, long recipeId) {
+            this.sort = sort;
+            this.key = key;
+            this.recipeId = recipeId;
+        }
+
+        /**
+         * Token layout before Base64: {@code sort|type|key|recipeId}, where type is
+         * {@code n} (numeric), {@code t} (timestamp) or {@code -} (null key).
+         */
+        String encode() {
+            String type;
+            String value;
+            if (key == null) {
+                type = "-";
+                value = "";
+            } else if (key instanceof Timestamp) {
+                type = "t";
+                value = key.toString();
+            } else {
+                type = "n";
+                value = ((BigDecimal) key).toPlainString();
+            }
+            String raw = sort.name + "|" + type + "|" + value + "|" + recipeId;
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+        }
+
+        /**
+         * @throws IllegalArgumentException if the token is malformed or was issued for another sort mode
+         */
+        static Cursor decode(String token, RecipeSort expected) {
+            try {
+                String raw = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+                String[] parts = raw.split("\\|", -1);
+                if (parts.length != 4 || !expected.name.equals(parts[0])) {
+                    throw new IllegalArgumentException("Cursor does not match sort " + expected.name);
+                }
+                Object key;
+                switch (parts[1]) {
+                    case "-":
+                        key = null;
+                        break;
+                    case "t":
+                        key = Timestamp.valueOf(parts[2]);
+                        break;
+                    case "n":
+                        key = new BigDecimal(parts[2]);
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Invalid cursor");
+                }
+                return new Cursor(expected, key, Long.parseLong(parts[3]));
+            } catch (IllegalArgumentException e) {
+                throw e;
+            } catch (RuntimeException e) {
+                throw new IllegalArgumentException("Invalid cursor", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,256 @@
+package io.sustc.service.impl;
+
+import io.sustc.dto.PageResult;
+import io.sustc.dto.ReviewRecord;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Per-JVM cache of {@code listByRecipe} pages, e.g. the first page shown on every recipe view.
+ *
+ * <p>Every recipe has a generation, bumped by {@link #bump(long)} whenever its reviews or their likes
+ * change. A cached page remembers the generation it was loaded under and is only served while that is
+ * still current, so invalidation never has to look for the keys of a recipe. Inside a transaction the
+ * generation is bumped again after completion, and a load that overlapped a bump is not stored.
+ *
+ * <p>Only pages up to {@code max-page} with at most {@code max-size} items and a sort listed in
+ * {@code sorts} are cached. Entries are evicted in LRU order once the entry count or the estimated
+ * weight (roughly the size of the cached strings in bytes) exceeds its limit.
+ */
+@Component
+public class ReviewPageCache {
+
+    private final boolean enabled;
+
+    private final int maxEntries;
+
+    private final long maxWeight;
+
+    private final int maxPage;
+
+    private final int maxSize;
+
+    private final Set<String> sorts;
+
+    private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(256, 0.75f, true);
+
+    /**
+     * Current generation of the recipes bumped since the last {@link #clear()}; the others are at {@link #floor}.
+     */
+    private final Map<Long, Long> generations = new HashMap<>();
+
+    private long counter;
+
+    private long floor;
+
+    private long weight;
+
+    private final LongAdder hits = new LongAdder();
+
+    private final LongAdder misses = new LongAdder();
+
+    private final LongAdder evictions = new LongAdder();
+
+    public ReviewPageCache(@Value("${sustc.cache.review-page.enabled:true}") boolean enabled,
+                           @Value("${sustc.cache.review-page.max-entries:5000}") int maxEntries,
+                           @Value("${sustc.cache.review-page.max-weight:33554432}") long maxWeight,
+                           @Value("${sustc.cache.review-page.max-page:1}") int maxPage,
+                           @Value("${sustc.cache.review-page.max-size:50}") int maxSize,
+                           @Value("${sustc.cache.review-page.sorts:date_desc,likes_desc}") String[] sorts) {
+        this.enabled = enabled;
+        this.maxEntries = maxEntries;
+        this.maxWeight = maxWeight;
+        this.maxPage = maxPage;
+        this.maxSize = maxSize;
+        this.sorts = new HashSet<>(Arrays.asList(sorts));
+    }
+
+    /**
+     * Returns a copy of the cached page, loading it with {@code loader} on a miss or if the page is
+     * not cacheable.
+     */
+    public PageResult<ReviewRecord> get(long recipeId, int page, int size, ReviewSort sort,
+                                        Supplier<PageResult<ReviewRecord>> loader) {
+        if (!enabled || page > maxPage || size > maxSize || !sorts.contains(sort.name().toLowerCase())) {
+            return loader.get();
+        }
+        Key key = new Key(recipeId, page, size, sort);
+        long gen;
+        synchronized (this) {
+            gen = generationOf(recipeId);
+            Entry entry = entries.get(key);
+            if (entry != null && entry.generation == gen) {
+                hits.increment();
+                return copy(entry.page);
+            }
+            if (entry != null) {
+                entries.remove(key);
+                weight -= entry.weight;
+            }
+        }
+        misses.increment();
+        PageResult<ReviewRecord> result = loader.get();
+        put(key, new Entry(copy(result), gen));
+        return result;
+    }
+
+    /**
+     * Marks every cached page of {@code recipeId} as stale; call it for each change to the reviews
+     * of the recipe or their likes.
+     */
+    public void bump(long recipeId) {
+        if (!enabled) {
+            return;
+        }
+        advance(recipeId);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    advance(recipeId);
+                }
+            });
+        }
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        generations.clear();
+        weight = 0;
+        floor = ++counter;
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    private long generationOf(long recipeId) {
+        return generations.getOrDefault(recipeId, floor);
+    }
+
+    private synchronized void advance(long recipeId) {
+        if (generations.size() >= maxEntries * 8) {
+            // cheaper than tracking which generations are still referenced
+            clear();
+        }
+        generations.put(recipeId, ++counter);
+    }
+
+    private synchronized void put(Key key, Entry entry) {
+        if (generationOf(key.recipeId) != entry.generation) {
+            return;
+        }
+        Entry old = entries.put(key, entry);
+        if (old != null) {
+            weight -= old.weight;
+        }
+        weight += entry.weight;
+
+        Iterator<Map.Entry<Key, Entry>> it = entries.entrySet().iterator();
+        while ((entries.size() > maxEntries || weight > maxWeight) && it.hasNext()) {
+            weight -= it.next().getValue().weight;
+            it.remove();
+            evictions.increment();
+        }
+    }
+
+    private static PageResult<ReviewRecord> copy(PageResult<ReviewRecord> page) {
+        List<ReviewRecord> items = new ArrayList<>(page.getItems().size());
+        for (ReviewRecord r : page.getItems()) {
+            items.add(new ReviewRecord(r.getReviewId(), r.getRecipeId(), r.getAuthorId(), r.getAuthorName(),
+                    r.getRating(), r.getReview(), r.getDateSubmitted(), r.getDateModified(),
+                    r.getLikes() == null ? null : r.getLikes().clone()));
+        }
+        return PageResult.<ReviewRecord>builder()
+                .items(items)
+                .page(page.getPage())
+                .size(page.getSize())
+                .total(page.getTotal())
+                .build();
+    }
+
+    private static final class Key {
+
+        final long recipeId;
+
+        final int page;
+
+        final int size;
+
+        final ReviewSort sort;
+
+        Key(long recipeId, int page, int size, ReviewSort sort) {
+            this.recipeId = recipeId;
+            this.page = page;
+            this.size = size;
+            this.sort = sort;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key k = (Key) o;
+            return recipeId == k.recipeId && page == k.page && size == k.size && sort == k.sort;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(recipeId, page, size, sort);
+        }
+    }
+
+    private static final class Entry {
+
+        final PageResult<ReviewRecord> page;
+
+        final long generation;
+
+        final long weight;
+
+        Entry(PageResult<ReviewRecord> page, long generation) {
+            this.page = page;
+            this.generation = generation;
+            this.weight = estimateWeight(page);
+        }
+
+        private static long estimateWeight(PageResult<ReviewRecord> page) {
+            long w = 64;
+            for (ReviewRecord r : page.getItems()) {
+                w += 128 + length(r.getAuthorName()) + length(r.getReview());
+                if (r.getLikes() != null) {
+                    w += 8L * r.getLikes().length;
+                }
+            }
+            return w;
+        }
+
+        private static long length(String s) {
+            return s == null ? 0 : 2L * s.length();
+        }
+    }
+}
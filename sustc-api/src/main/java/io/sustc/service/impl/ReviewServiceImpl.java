@@ -1,23 +1,34 @@
 package io.sustc.service.impl;
 
 import io.sustc.dto.AuthInfo;
+import io.sustc.dto.CursorPageResult;
 import io.sustc.dto.PageResult;
 import io.sustc.dto.RecipeRecord;
 import io.sustc.dto.ReviewRecord;
+import io.sustc.dto.ReviewSubmission;
+import io.sustc.dto.ReviewSubmissionResult;
+import io.sustc.dto.ReviewSummary;
 import io.sustc.service.ReviewService;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
 
-import javax.sql.DataSource;
-import java.sql.Connection;
-import java.sql.DatabaseMetaData;
-import java.sql.ResultSet;
 import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 @Service
 @Slf4j
@@ -27,9 +38,44 @@ public class ReviewServiceImpl implements ReviewService {
     @SuppressWarnings("SpringJavaInjectionPointsAutowiringInspection")
     private JdbcTemplate jdbcTemplate;
 
+
     @Autowired
-    @SuppressWarnings("SpringJavaInjectionPointsAutowiringInspection")
-    private DataSource dataSource;
+    private RecipeCache recipeCache;
+
+    @Autowired
+    private LikeBuffer likeBuffer;
+
+    /**
+     * Set after a review delete commits: new reviews should continue right after the largest
+     * remaining id, as if the sequence had been reset by the delete itself.
+     */
+    private final AtomicBoolean idRewindPending = new AtomicBoolean();
+
+    @Autowired
+    private IdBlockAllocator idBlockAllocator;
+
+    @Autowired
+    private ReviewPageCache reviewPageCache;
+
+    @Autowired
+    private RecipeExistenceCache recipeExistenceCache;
+
+    /**
+     * Filter on the statements that derive the existence of the recipe from their own result.
+     */
+    private static final String RECIPE_ACTIVE = "EXISTS (SELECT 1 FROM recipes WHERE RecipeId = ? AND NOT IsDeleted)";
+
+    /**
+     * Length of the {@code ReviewPreview} column kept in compact-text mode.
+     */
+    static final int STORED_PREVIEW_LENGTH = 256;
+
+    /**
+     * Compact-text mode: {@code reviews} carries {@code ReviewPreview} and {@code ReviewLength}, so
+     * previews are served without reading (and decompressing) the full text, see {@code DatabaseServiceImpl}.
+     */
+    @Value("${sustc.storage.compact-text.enabled:false}")
+    private boolean compactText;
 
     @Override
     @Transactional
@@ -38,124 +84,253 @@ public class ReviewServiceImpl implements ReviewService {
         ensureRecipeExists(recipeId);
         if (rating < 1 || rating > 5) throw new IllegalArgumentException("rating must be in [1,5]");
 
+        applyPendingIdRewind();
         Timestamp now = new Timestamp(System.currentTimeMillis());
-        Long reviewId = jdbcTemplate.queryForObject(
+        long reviewId = idBlockAllocator.next(IdBlockAllocator.Table.REVIEWS);
+        jdbcTemplate.update(
                 "INSERT INTO reviews (ReviewId, RecipeId, AuthorId, Rating, Review, DateSubmitted, DateModified) " +
-                        "VALUES (DEFAULT, ?, ?, ?, ?, ?, ?) RETURNING ReviewId",
-                Long.class, recipeId, auth.getAuthorId(), rating, review, now, now);
+                        "VALUES (?, ?, ?, ?, ?, ?, ?)",
+                reviewId, recipeId, auth.getAuthorId(), rating, review, now, now);
 
-        refreshRecipeAggregatedRating(recipeId);
-        return reviewId == null ? 0L : reviewId;
+        applyRatingDelta(recipeId, rating, 1, 1);
+        reviewPageCache.bump(recipeId);
+        return reviewId;
+    }
+
+    @Override
+    @Transactional
+    public List<ReviewSubmissionResult> addReviews(AuthInfo auth, List<ReviewSubmission> entries) {
+        validateActiveUser(auth);
+        if (entries == null) throw new IllegalArgumentException("entries cannot be null");
+
+        Set<Long> requested = new HashSet<>();
+        for (ReviewSubmission entry : entries) {
+            if (entry != null) {
+                requested.add(entry.getRecipeId());
+            }
+        }
+        Set<Long> existing = new HashSet<>();
+        if (recipeExistenceCache.isEnabled()) {
+            for (Long recipeId : requested) {
+                if (recipeExistenceCache.contains(recipeId)) {
+                    existing.add(recipeId);
+                }
+            }
+        } else if (!requested.isEmpty()) {
+            jdbcTemplate.query("SELECT RecipeId FROM recipes WHERE RecipeId = ANY(?) AND NOT IsDeleted",
+                    ps -> SqlArrays.setLongs(ps, 1, requested),
+                    rs -> {
+                        existing.add(rs.getLong(1));
+                    });
+        }
+
+        List<ReviewSubmissionResult> results = new ArrayList<>(entries.size());
+        List<ReviewSubmission> accepted = new ArrayList<>();
+        for (ReviewSubmission entry : entries) {
+            ReviewSubmissionResult.Status status;
+            if (entry == null) {
+                status = ReviewSubmissionResult.Status.INVALID_ENTRY;
+            } else if (!existing.contains(entry.getRecipeId())) {
+                status = ReviewSubmissionResult.Status.RECIPE_NOT_FOUND;
+            } else if (entry.getRating() < 1 || entry.getRating() > 5) {
+                status = ReviewSubmissionResult.Status.INVALID_RATING;
+            } else {
+                status = ReviewSubmissionResult.Status.CREATED;
+                accepted.add(entry);
+            }
+            results.add(ReviewSubmissionResult.builder().status(status).build());
+        }
+        if (accepted.isEmpty()) {
+            return results;
+        }
+
+        applyPendingIdRewind();
+        List<Long> ids = idBlockAllocator.next(IdBlockAllocator.Table.REVIEWS, accepted.size());
+        List<Long> recipeIds = new ArrayList<>(accepted.size());
+        List<Integer> ratings = new ArrayList<>(accepted.size());
+        List<String> texts = new ArrayList<>(accepted.size());
+        // per recipe: rating sum and number of new reviews
+        Map<Long, long[]> deltas = new LinkedHashMap<>();
+        for (ReviewSubmission entry : accepted) {
+            recipeIds.add(entry.getRecipeId());
+            ratings.add(entry.getRating());
+            texts.add(entry.getReview());
+            long[] delta = deltas.computeIfAbsent(entry.getRecipeId(), k -> new long[2]);
+            delta[0] += entry.getRating();
+            delta[1]++;
+        }
+        int next = 0;
+        for (ReviewSubmissionResult result : results) {
+            if (result.getStatus() == ReviewSubmissionResult.Status.CREATED) {
+                result.setReviewId(ids.get(next++));
+            }
+        }
+
+        Timestamp now = new Timestamp(System.currentTimeMillis());
+        jdbcTemplate.update("INSERT INTO reviews (ReviewId, RecipeId, AuthorId, Rating, Review, DateSubmitted, DateModified) " +
+                        "SELECT t.ReviewId, t.RecipeId, ?, t.Rating, t.Review, ?, ? " +
+                        "FROM unnest(?::bigint[], ?::bigint[], ?::int[], ?::text[]) AS t(ReviewId, RecipeId, Rating, Review)",
+                ps -> {
+                    ps.setLong(1, auth.getAuthorId());
+                    ps.setTimestamp(2, now);
+                    ps.setTimestamp(3, now);
+                    SqlArrays.setLongs(ps, 4, ids);
+                    SqlArrays.setLongs(ps, 5, recipeIds);
+                    SqlArrays.setInts(ps, 6, ratings);
+                    SqlArrays.setStrings(ps, 7, texts);
+                });
+
+        List<Long> deltaRecipes = new ArrayList<>(deltas.keySet());
+        List<Long> deltaSums = new ArrayList<>(deltas.size());
+        List<Long> deltaCounts = new ArrayList<>(deltas.size());
+        for (long[] delta : deltas.values()) {
+            deltaSums.add(delta[0]);
+            deltaCounts.add(delta[1]);
+        }
+        // 每个菜谱只更新一次，规则同 applyRatingDelta
+        jdbcTemplate.update("UPDATE recipes r SET RatingSum = r.RatingSum + d.total, RatingCount = r.RatingCount + d.cnt, " +
+                        "ReviewRows = r.ReviewRows + d.cnt, " +
+                        "AggregatedRating = ROUND((r.RatingSum + d.total)::numeric / (r.RatingCount + d.cnt), 2), " +
+                        "ReviewCount = r.ReviewRows + d.cnt " +
+                        "FROM unnest(?::bigint[], ?::bigint[], ?::bigint[]) AS d(RecipeId, total, cnt) " +
+                        "WHERE r.RecipeId = d.RecipeId",
+                ps -> {
+                    SqlArrays.setLongs(ps, 1, deltaRecipes);
+                    SqlArrays.setLongs(ps, 2, deltaSums);
+                    SqlArrays.setLongs(ps, 3, deltaCounts);
+                });
+        deltaRecipes.forEach(recipeCache::invalidate);
+        deltaRecipes.forEach(reviewPageCache::bump);
+        return results;
     }
 
     @Override
     @Transactional
     public void editReview(AuthInfo auth, long recipeId, long reviewId, int rating, String review) {
         validateActiveUser(auth);
-        ensureRecipeExists(recipeId);
-        ensureReviewBelongsToRecipe(reviewId, recipeId);
+        Map<String, Object> old = lockReview(reviewId, recipeId);
         if (rating < 1 || rating > 5) throw new IllegalArgumentException("rating must be in [1,5]");
 
-        Long authorId = jdbcTemplate.queryForObject("SELECT AuthorId FROM reviews WHERE ReviewId = ?", Long.class, reviewId);
+        Long authorId = (Long) old.get("AuthorId");
         if (authorId == null || !authorId.equals(auth.getAuthorId())) throw new SecurityException("not review author");
 
         Timestamp now = new Timestamp(System.currentTimeMillis());
         jdbcTemplate.update("UPDATE reviews SET Rating = ?, Review = ?, DateModified = ? WHERE ReviewId = ?",
                 rating, review, now, reviewId);
+        reviewPageCache.bump(recipeId);
 
-        refreshRecipeAggregatedRating(recipeId);
+        Integer oldRating = (Integer) old.get("Rating");
+        if (oldRating == null) {
+            applyRatingDelta(recipeId, rating, 1, 0);
+        } else if (oldRating != rating) {
+            applyRatingDelta(recipeId, rating - oldRating, 0, 0);
+        }
     }
 
     @Override
     @Transactional
     public void deleteReview(AuthInfo auth, long recipeId, long reviewId) {
         validateActiveUser(auth);
-        ensureRecipeExists(recipeId);
-        ensureReviewBelongsToRecipe(reviewId, recipeId);
-
-        Long authorId = jdbcTemplate.queryForObject("SELECT AuthorId FROM reviews WHERE ReviewId = ?", Long.class, reviewId);
+        Map<String, Object> old = lockReview(reviewId, recipeId);
+        Long authorId = (Long) old.get("AuthorId");
         if (authorId == null || !authorId.equals(auth.getAuthorId())) throw new SecurityException("not review author");
 
+        likeBuffer.forget(reviewId);
         jdbcTemplate.update("DELETE FROM review_likes WHERE ReviewId = ?", reviewId);
         jdbcTemplate.update("DELETE FROM reviews WHERE ReviewId = ?", reviewId);
+        reviewPageCache.bump(recipeId);
 
-        refreshRecipeAggregatedRating(recipeId);
-        resetPkSequenceToNext("reviews");
+        Integer oldRating = (Integer) old.get("Rating");
+        applyRatingDelta(recipeId, oldRating == null ? 0 : -oldRating, oldRating == null ? 0 : -1, -1);
+        TransactionHooks.afterCommit(() -> idRewindPending.set(true));
     }
 
+    // 不开事务：写入本身是单条语句；group-commit 模式下等待刷盘时不能占着连接池里的连接
     @Override
-    @Transactional
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
     public long likeReview(AuthInfo auth, long reviewId) {
         validateActiveUser(auth);
         Long reviewAuthor;
         try {
-            reviewAuthor = jdbcTemplate.queryForObject("SELECT AuthorId FROM reviews WHERE ReviewId = ?", Long.class, reviewId);
+            // reviews of a deleted recipe are gone for readers even before the reaper purges them
+            reviewAuthor = jdbcTemplate.queryForObject(
+                    "SELECT rv.AuthorId FROM reviews rv JOIN recipes r ON r.RecipeId = rv.RecipeId " +
+                            "WHERE rv.ReviewId = ? AND NOT r.IsDeleted", Long.class, reviewId);
         } catch (org.springframework.dao.EmptyResultDataAccessException e) {
             throw new IllegalArgumentException("review not exists");
         }
 
         if (reviewAuthor.equals(auth.getAuthorId())) throw new SecurityException("cannot like own review");
+        if (likeBuffer.isEnabled()) {
+            return likeBuffer.like(reviewId, auth.getAuthorId());
+        }
 
-        jdbcTemplate.update("INSERT INTO review_likes (ReviewId, AuthorId) VALUES (?, ?) ON CONFLICT DO NOTHING",
-                reviewId, auth.getAuthorId());
-
-        return jdbcTemplate.queryForObject("SELECT COUNT(*) FROM review_likes WHERE ReviewId = ?", Long.class, reviewId);
+        // LikeCount only moves when the like row was really inserted; the row lock orders concurrent likes
+        Map<String, Object> row = jdbcTemplate.queryForMap(
+                "WITH ins AS (INSERT INTO review_likes (ReviewId, AuthorId) VALUES (?, ?) ON CONFLICT DO NOTHING RETURNING 1) " +
+                        "UPDATE reviews SET LikeCount = LikeCount + (SELECT COUNT(*) FROM ins) WHERE ReviewId = ? " +
+                        "RETURNING LikeCount, RecipeId",
+                reviewId, auth.getAuthorId(), reviewId);
+        reviewPageCache.bump(((Number) row.get("RecipeId")).longValue());
+        return ((Number) row.get("LikeCount")).longValue();
     }
 
     @Override
-    @Transactional
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
     public long unlikeReview(AuthInfo auth, long reviewId) {
         validateActiveUser(auth);
-        Integer exists = jdbcTemplate.queryForObject("SELECT COUNT(*) FROM reviews WHERE ReviewId = ?", Integer.class, reviewId);
-        if (exists == null || exists == 0) throw new IllegalArgumentException("review not exists");
+        if (likeBuffer.isEnabled()) {
+            Boolean exists = jdbcTemplate.queryForObject(
+                    "SELECT EXISTS (SELECT 1 FROM reviews rv JOIN recipes r ON r.RecipeId = rv.RecipeId " +
+                            "WHERE rv.ReviewId = ? AND NOT r.IsDeleted)", Boolean.class, reviewId);
+            if (exists == null || !exists) throw new IllegalArgumentException("review not exists");
+            return likeBuffer.unlike(reviewId, auth.getAuthorId());
+        }
 
-        jdbcTemplate.update("DELETE FROM review_likes WHERE ReviewId = ? AND AuthorId = ?", reviewId, auth.getAuthorId());
-        return jdbcTemplate.queryForObject("SELECT COUNT(*) FROM review_likes WHERE ReviewId = ?", Long.class, reviewId);
+        // no row back means the review (or its recipe) is gone; nothing was deleted then
+        List<Map<String, Object>> rows = jdbcTemplate.queryForList(
+                "WITH target AS (SELECT rv.ReviewId FROM reviews rv JOIN recipes r ON r.RecipeId = rv.RecipeId " +
+                        "WHERE rv.ReviewId = ? AND NOT r.IsDeleted), " +
+                        "del AS (DELETE FROM review_likes WHERE ReviewId IN (SELECT ReviewId FROM target) AND AuthorId = ? RETURNING 1) " +
+                        "UPDATE reviews SET LikeCount = LikeCount - (SELECT COUNT(*) FROM del) " +
+                        "WHERE ReviewId IN (SELECT ReviewId FROM target) " +
+                        "RETURNING LikeCount, RecipeId",
+                reviewId, auth.getAuthorId());
+        if (rows.isEmpty()) throw new IllegalArgumentException("review not exists");
+        Map<String, Object> row = rows.get(0);
+        reviewPageCache.bump(((Number) row.get("RecipeId")).longValue());
+        return ((Number) row.get("LikeCount")).longValue();
     }
 
     @Override
     @Transactional(readOnly = true)
     public PageResult<ReviewRecord> listByRecipe(long recipeId, int page, int size, String sort) {
         if (page < 1 || size <= 0) throw new IllegalArgumentException("invalid page/size");
-        ensureRecipeExists(recipeId);
-
-        String normalized = normalizeSort(sort);
+        checkCachedRecipeExists(recipeId);
 
-        String orderBy;
-        if ("likes_desc".equals(normalized)) {
-            orderBy = "x.likes_count DESC, r.DateModified DESC, r.ReviewId ASC";
-        } else { // date_desc 或未知/空白：默认 date_desc
-            orderBy = "r.DateModified DESC, r.ReviewId ASC";
-        }
+        ReviewSort order = ReviewSort.of(sort);
+        return reviewPageCache.get(recipeId, page, size, order, () -> loadPage(recipeId, page, size, order));
+    }
 
+    private PageResult<ReviewRecord> loadPage(long recipeId, int page, int size, ReviewSort order) {
         int offset = (page - 1) * size;
 
+        // likes_desc 直接按 LikeCount 列排序，走 idx_reviews_recipe_likes；
+        // 总数随第一行一起返回，菜谱是否存在只在结果为空时才单独查询
         String sql =
-                "SELECT r.*, u.AuthorName, x.likes_count " +
+                "SELECT r.ReviewId, r.RecipeId, r.AuthorId, u.AuthorName, r.Rating, r.Review, r.DateSubmitted, r.DateModified, " +
+                        "(SELECT COUNT(*) FROM reviews WHERE RecipeId = ?) AS Total " +
                         "FROM reviews r " +
                         "JOIN users u ON r.AuthorId = u.AuthorId " +
-                        "JOIN ( " +
-                        "  SELECT rv.ReviewId, COUNT(rl.AuthorId) AS likes_count " +
-                        "  FROM reviews rv " +
-                        "  LEFT JOIN review_likes rl ON rl.ReviewId = rv.ReviewId " +
-                        "  WHERE rv.RecipeId = ? " +
-                        "  GROUP BY rv.ReviewId " +
-                        ") x ON x.ReviewId = r.ReviewId " +
-                        "WHERE r.RecipeId = ? " +
-                        "ORDER BY " + orderBy + " " +
+                        "WHERE r.RecipeId = ? AND " + RECIPE_ACTIVE + " " +
+                        order.orderBy() + " " +
                         "LIMIT ? OFFSET ?";
 
+        long[] total = new long[1];
         List<ReviewRecord> items = jdbcTemplate.query(sql, (rs, rowNum) -> {
-            long reviewId = rs.getLong("ReviewId");
-
-            List<Long> likerIds = jdbcTemplate.queryForList(
-                    "SELECT AuthorId FROM review_likes WHERE ReviewId = ? ORDER BY AuthorId ASC",
-                    Long.class,
-                    reviewId
-            );
-
+            total[0] = rs.getLong("Total");
             return ReviewRecord.builder()
-                    .reviewId(reviewId)
+                    .reviewId(rs.getLong("ReviewId"))
                     .recipeId(rs.getLong("RecipeId"))
                     .authorId(rs.getLong("AuthorId"))
                     .authorName(rs.getString("AuthorName"))
@@ -163,92 +338,213 @@ public class ReviewServiceImpl implements ReviewService {
                     .review(rs.getString("Review"))
                     .dateSubmitted(rs.getTimestamp("DateSubmitted"))
                     .dateModified(rs.getTimestamp("DateModified"))
-                    .likes(likerIds.stream().mapToLong(Long::longValue).toArray())
+                    .likes(new long[0])
                     .build();
-        }, recipeId, recipeId, size, offset);
-
-        Long total = jdbcTemplate.queryForObject(
-                "SELECT COUNT(*) FROM reviews WHERE RecipeId = ?",
-                Long.class,
-                recipeId
-        );
+        }, recipeId, recipeId, recipeId, size, offset);
+
+        if (items.isEmpty()) {
+            // either a page past the end or a missing recipe
+            Map<String, Object> row = jdbcTemplate.queryForMap(
+                    "SELECT " + RECIPE_ACTIVE + " AS Present, (SELECT COUNT(*) FROM reviews WHERE RecipeId = ?) AS Total",
+                    recipeId, recipeId);
+            if (!Boolean.TRUE.equals(row.get("Present"))) throw new IllegalArgumentException("recipe not exists");
+            total[0] = ((Number) row.get("Total")).longValue();
+        }
+        loadLikers(items);
 
         return PageResult.<ReviewRecord>builder()
                 .items(items)
                 .page(page)
                 .size(size)
-                .total(total == null ? 0 : total)
+                .total(total[0])
                 .build();
     }
 
-    private String normalizeSort(String sort) {
-        String s = (sort == null ? "" : sort.trim().toLowerCase());
+    @Override
+    @Transactional(readOnly = true)
+    public CursorPageResult<ReviewRecord> listByRecipeCursor(long recipeId, String cursor, int size, String sort) {
+        List<ReviewSort.Cursor> positions = new ArrayList<>();
+        List<ReviewRecord> items = queryAfterCursor(recipeId, cursor, size, sort, "r.Review", Collections.emptyList(),
+                (rs, rowNum) -> ReviewRecord.builder()
+                        .reviewId(rs.getLong("ReviewId"))
+                        .recipeId(rs.getLong("RecipeId"))
+                        .authorId(rs.getLong("AuthorId"))
+                        .authorName(rs.getString("AuthorName"))
+                        .rating(rs.getInt("Rating"))
+                        .review(rs.getString("Review"))
+                        .dateSubmitted(rs.getTimestamp("DateSubmitted"))
+                        .dateModified(rs.getTimestamp("DateModified"))
+                        .likes(new long[0])
+                        .build(),
+                positions);
+        String next = nextCursor(items, size, positions);
+        if (items.size() > size) {
+            items = new ArrayList<>(items.subList(0, size));
+        }
+        loadLikers(items);
+        return new CursorPageResult<>(items, size, next);
+    }
 
-        if (s.isBlank()) return "date_desc";
+    @Override
+    @Transactional(readOnly = true)
+    public CursorPageResult<ReviewSummary> listSummariesByRecipe(long recipeId, String cursor, int size,
+                                                                 String sort, int previewLength) {
+        if (previewLength < 0) throw new IllegalArgumentException("invalid preview length");
+        List<ReviewSort.Cursor> positions = new ArrayList<>();
+        // 只截取前 previewLength 个字符，不传输完整正文；压缩存储时直接读预览列，不解压正文
+        String textColumns = compactText && previewLength <= STORED_PREVIEW_LENGTH
+                ? "left(r.ReviewPreview, ?) AS Preview, r.ReviewLength > ? AS Truncated"
+                : "left(r.Review, ?) AS Preview, char_length(r.Review) > ? AS Truncated";
+        List<ReviewSummary> items = queryAfterCursor(recipeId, cursor, size, sort, textColumns,
+                Arrays.asList(previewLength, previewLength),
+                (rs, rowNum) -> ReviewSummary.builder()
+                        .reviewId(rs.getLong("ReviewId"))
+                        .recipeId(rs.getLong("RecipeId"))
+                        .authorId(rs.getLong("AuthorId"))
+                        .authorName(rs.getString("AuthorName"))
+                        .rating(rs.getInt("Rating"))
+                        .preview(rs.getString("Preview"))
+                        .truncated(rs.getBoolean("Truncated"))
+                        .likeCount(rs.getLong("LikeCount"))
+                        .dateSubmitted(rs.getTimestamp("DateSubmitted"))
+                        .dateModified(rs.getTimestamp("DateModified"))
+                        .build(),
+                positions);
+        String next = nextCursor(items, size, positions);
+        if (items.size() > size) {
+            items = new ArrayList<>(items.subList(0, size));
+        }
+        return new CursorPageResult<>(items, size, next);
+    }
 
-        // 兼容常见误输入
-        if ("data_desc".equals(s)) return "date_desc";
-        if ("like_desc".equals(s)) return "likes_desc";
-        if ("likes_descs".equals(s)) return "likes_desc";
+    @Override
+    @Transactional(readOnly = true)
+    public String getReviewText(long reviewId) {
+        List<String> texts = jdbcTemplate.queryForList(
+                "SELECT rv.Review FROM reviews rv JOIN recipes r ON r.RecipeId = rv.RecipeId " +
+                        "WHERE rv.ReviewId = ? AND NOT r.IsDeleted", String.class, reviewId);
+        if (texts.isEmpty()) throw new IllegalArgumentException("review not exists");
+        return texts.get(0);
+    }
 
-        if ("date_desc".equals(s)) return "date_desc";
-        if ("likes_desc".equals(s)) return "likes_desc";
+    /**
+     * Reads up to {@code size + 1} reviews after the cursor; the extra row tells whether another page
+     * follows. The cursor position {@code (LikeCount, DateModified, ReviewId)} of every row is
+     * collected into {@code positions}.
+     */
+    private <T> List<T> queryAfterCursor(long recipeId, String cursor, int size, String sort,
+                                         String textColumns, List<Object> textParams,
+                                         RowMapper<T> mapper, List<ReviewSort.Cursor> positions) {
+        if (size <= 0) throw new IllegalArgumentException("invalid size");
+        checkCachedRecipeExists(recipeId);
+        ReviewSort order = ReviewSort.of(sort);
+
+        List<Object> params = new ArrayList<>(textParams);
+        StringBuilder sql = new StringBuilder("SELECT r.ReviewId, r.RecipeId, r.AuthorId, u.AuthorName, r.Rating, " +
+                "r.DateSubmitted, r.DateModified, r.LikeCount, " + textColumns +
+                " FROM reviews r JOIN users u ON r.AuthorId = u.AuthorId WHERE r.RecipeId = ? AND " + RECIPE_ACTIVE);
+        params.add(recipeId);
+        params.add(recipeId);
+        if (cursor != null && !cursor.isEmpty()) {
+            order.appendAfter(sql, params, ReviewSort.Cursor.decode(cursor, order));
+        }
+        sql.append(order.orderBy()).append(" LIMIT ?");
+        params.add(size + 1);
+
+        List<T> items = jdbcTemplate.query(sql.toString(), (rs, rowNum) -> {
+            positions.add(new ReviewSort.Cursor(order, rs.getLong("LikeCount"), rs.getTimestamp("DateModified"),
+                    rs.getLong("ReviewId")));
+            return mapper.mapRow(rs, rowNum);
+        }, params.toArray());
+        if (items.isEmpty()) {
+            ensureRecipeExists(recipeId);
+        }
+        return items;
+    }
 
-        // 未知 sort：默认 date_desc
-        return "date_desc";
+    private static String nextCursor(List<?> items, int size, List<ReviewSort.Cursor> positions) {
+        return items.size() > size ? positions.get(size - 1).encode() : null;
     }
 
+    /**
+     * Fills the likers of all reviews of a page with one query instead of one per review.
+     */
+    private void loadLikers(List<ReviewRecord> items) {
+        if (items.isEmpty()) {
+            return;
+        }
+        Map<Long, ReviewRecord> byId = new HashMap<>();
+        for (ReviewRecord item : items) {
+            byId.put(item.getReviewId(), item);
+        }
+        jdbcTemplate.query(
+                "SELECT ReviewId, array_agg(AuthorId ORDER BY AuthorId) FROM review_likes WHERE ReviewId = ANY(?) GROUP BY ReviewId",
+                ps -> SqlArrays.setLongs(ps, 1, byId.keySet()),
+                rs -> {
+                    Long[] likers = (Long[]) rs.getArray(2).getArray();
+                    long[] likes = new long[likers.length];
+                    for (int i = 0; i < likers.length; i++) {
+                        likes[i] = likers[i];
+                    }
+                    byId.get(rs.getLong(1)).setLikes(likes);
+                });
+    }
+
+    /**
+     * Full repair: recomputes the running totals from the reviews and derives the rating from them.
+     * Review writes only apply deltas, see {@link #applyRatingDelta}.
+     */
     @Override
     @Transactional
     public RecipeRecord refreshRecipeAggregatedRating(long recipeId) {
-        ensureRecipeExists(recipeId);
-
-        Map<String, Object> agg = jdbcTemplate.queryForMap(
-                "SELECT ROUND(AVG(Rating)::numeric, 2) AS avg_rating, COUNT(*) AS cnt FROM reviews WHERE RecipeId = ?",
-                recipeId);
+        // the update itself tells whether the recipe exists and returns the refreshed row
+        List<RecipeRecord> refreshed = jdbcTemplate.query("UPDATE recipes r SET RatingSum = c.total, RatingCount = c.rated, ReviewRows = c.cnt, " +
+                        "AggregatedRating = CASE WHEN c.rated = 0 THEN NULL ELSE ROUND(c.total::numeric / c.rated, 2) END, " +
+                        "ReviewCount = c.cnt " +
+                        "FROM (SELECT COALESCE(SUM(Rating), 0) AS total, COUNT(Rating) AS rated, COUNT(*) AS cnt " +
+                        "FROM reviews WHERE RecipeId = ?) c " +
+                        "WHERE r.RecipeId = ? AND NOT r.IsDeleted " +
+                        "RETURNING r.RecipeId, r.Name, r.AuthorId, r.CookTime, r.PrepTime, r.TotalTime, r.DatePublished, r.Description, " +
+                        "       r.RecipeCategory, r.AggregatedRating, r.ReviewCount, r.Calories, r.FatContent, r.SaturatedFatContent, " +
+                        "       r.CholesterolContent, r.SodiumContent, r.CarbohydrateContent, r.FiberContent, r.SugarContent, " +
+                        "       r.ProteinContent, r.RecipeServings, r.RecipeYield",
+                new RecipeRowMapper(),
+                recipeId, recipeId);
+        if (refreshed.isEmpty()) throw new IllegalArgumentException("recipe not exists");
+        recipeCache.invalidate(recipeId);
+        return refreshed.get(0);
+    }
 
-        Number cnt = (Number) agg.get("cnt");
-        Number avg = (Number) agg.get("avg_rating");
+    /**
+     * Adds the given deltas to the running rating totals of a recipe and derives
+     * {@code AggregatedRating} (average of the non-null ratings, rounded to two places, {@code null}
+     * without any) and {@code ReviewCount} from them, the same values a full recompute gives.
+     */
+    private void applyRatingDelta(long recipeId, long sumDelta, int ratedDelta, int rowsDelta) {
+        jdbcTemplate.update("UPDATE recipes SET RatingSum = RatingSum + ?, RatingCount = RatingCount + ?, " +
+                        "ReviewRows = ReviewRows + ?, " +
+                        "AggregatedRating = CASE WHEN RatingCount + ? = 0 THEN NULL " +
+                        "ELSE ROUND((RatingSum + ?)::numeric / (RatingCount + ?), 2) END, " +
+                        "ReviewCount = ReviewRows + ? " +
+                        "WHERE RecipeId = ?",
+                sumDelta, ratedDelta, rowsDelta, ratedDelta, sumDelta, ratedDelta, rowsDelta, recipeId);
+        recipeCache.invalidate(recipeId);
+    }
 
-        if (cnt == null || cnt.longValue() == 0L) {
-            jdbcTemplate.update("UPDATE recipes SET AggregatedRating = NULL, ReviewCount = 0 WHERE RecipeId = ?", recipeId);
-        } else {
-            jdbcTemplate.update("UPDATE recipes SET AggregatedRating = ?, ReviewCount = ? WHERE RecipeId = ?",
-                    avg, cnt.longValue(), recipeId);
+    /**
+     * Reads the author and rating of a review of an active recipe and locks it against concurrent edits.
+     * Only if there is no such review is the recipe probed, to tell which of the two is missing.
+     */
+    private Map<String, Object> lockReview(long reviewId, long recipeId) {
+        List<Map<String, Object>> rows = jdbcTemplate.queryForList(
+                "SELECT rv.AuthorId, rv.Rating FROM reviews rv JOIN recipes r ON r.RecipeId = rv.RecipeId " +
+                        "WHERE rv.ReviewId = ? AND rv.RecipeId = ? AND NOT r.IsDeleted FOR UPDATE OF rv",
+                reviewId, recipeId);
+        if (rows.isEmpty()) {
+            ensureRecipeExists(recipeId);
+            throw new IllegalArgumentException("review not belongs to recipe");
         }
-
-        return jdbcTemplate.queryForObject(
-                "SELECT RecipeId, Name, AuthorId, CookTime, PrepTime, TotalTime, DatePublished, Description, " +
-                        "       RecipeCategory, AggregatedRating, ReviewCount, Calories, FatContent, SaturatedFatContent, " +
-                        "       CholesterolContent, SodiumContent, CarbohydrateContent, FiberContent, SugarContent, " +
-                        "       ProteinContent, RecipeServings, RecipeYield " +
-                        "FROM recipes WHERE RecipeId = ?",
-                (rs, i) -> io.sustc.dto.RecipeRecord.builder()
-                        .RecipeId(rs.getLong("RecipeId"))
-                        .name(rs.getString("Name"))
-                        .authorId(rs.getLong("AuthorId"))
-                        .cookTime(rs.getString("CookTime"))
-                        .prepTime(rs.getString("PrepTime"))
-                        .totalTime(rs.getString("TotalTime"))
-                        .datePublished(rs.getTimestamp("DatePublished"))
-                        .description(rs.getString("Description"))
-                        .recipeCategory(rs.getString("RecipeCategory"))
-                        .aggregatedRating(rs.getFloat("AggregatedRating"))
-                        .reviewCount(rs.getInt("ReviewCount"))
-                        .calories(rs.getFloat("Calories"))
-                        .fatContent(rs.getFloat("FatContent"))
-                        .saturatedFatContent(rs.getFloat("SaturatedFatContent"))
-                        .cholesterolContent(rs.getFloat("CholesterolContent"))
-                        .sodiumContent(rs.getFloat("SodiumContent"))
-                        .carbohydrateContent(rs.getFloat("CarbohydrateContent"))
-                        .fiberContent(rs.getFloat("FiberContent"))
-                        .sugarContent(rs.getFloat("SugarContent"))
-                        .proteinContent(rs.getFloat("ProteinContent"))
-                        .recipeServings(parseIntSafe(rs.getString("RecipeServings")))
-                        .recipeYield(rs.getString("RecipeYield"))
-                        .build(),
-                recipeId
-        );
+        return rows.get(0);
     }
 
     private void validateActiveUser(AuthInfo auth) {
@@ -269,81 +565,38 @@ public class ReviewServiceImpl implements ReviewService {
     }
 
     private void ensureRecipeExists(long recipeId) {
-        Integer cnt = jdbcTemplate.queryForObject("SELECT COUNT(*) FROM recipes WHERE RecipeId = ?", Integer.class, recipeId);
-        if (cnt == null || cnt == 0) throw new IllegalArgumentException("recipe not exists");
-    }
-
-    private void ensureReviewBelongsToRecipe(long reviewId, long recipeId) {
-        Integer cnt = jdbcTemplate.queryForObject(
-                "SELECT COUNT(*) FROM reviews WHERE ReviewId = ? AND RecipeId = ?",
-                Integer.class, reviewId, recipeId);
-        if (cnt == null || cnt == 0) throw new IllegalArgumentException("review not belongs to recipe");
-    }
-
-    private int parseIntSafe(String s) {
-        try {
-            return s == null ? 0 : Integer.parseInt(s);
-        } catch (Exception e) {
-            return 0;
-        }
-    }
-
-    private void resetPkSequenceToNext(String tableName) {
-        String pkColumn = resolvePrimaryKeyColumn(tableName);
-
-        String tableRef = qualifyForPg(tableName);
-        String colRef = quoteIdentIfNeeded(pkColumn);
-
-        Long maxId = jdbcTemplate.queryForObject(
-                "SELECT COALESCE(MAX(" + colRef + "), 0) FROM " + tableRef, Long.class);
-        long nextValue = (maxId == null ? 1L : maxId + 1L);
-
-        String seqName = jdbcTemplate.queryForObject(
-                "SELECT pg_get_serial_sequence(?, ?)::text", String.class, tableRef, colRef);
-
-        if (seqName == null) {
+        if (recipeExistenceCache.isEnabled()) {
+            checkCachedRecipeExists(recipeId);
             return;
         }
-
-        jdbcTemplate.queryForObject(
-                "SELECT setval(?, ?, FALSE)", Long.class, seqName, nextValue
-        );
+        Boolean exists = jdbcTemplate.queryForObject(
+                "SELECT " + RECIPE_ACTIVE, Boolean.class, recipeId);
+        if (exists == null || !exists) throw new IllegalArgumentException("recipe not exists");
     }
 
-    private String resolvePrimaryKeyColumn(String tableName) {
-        try (Connection c = dataSource.getConnection()) {
-            DatabaseMetaData meta = c.getMetaData();
-            try (ResultSet rs = meta.getPrimaryKeys(c.getCatalog(), null, tableName)) {
-                if (rs.next()) {
-                    return rs.getString("COLUMN_NAME");
-                }
-            }
-        } catch (Exception e) {
-            throw new IllegalStateException("Failed to resolve primary key column for table: " + tableName, e);
+    /**
+     * Rejects a missing recipe early if that costs no round trip; otherwise the caller's statement
+     * filters on {@link #RECIPE_ACTIVE} and falls back to {@link #ensureRecipeExists} on an empty result.
+     */
+    private void checkCachedRecipeExists(long recipeId) {
+        if (recipeExistenceCache.isEnabled() && !recipeExistenceCache.contains(recipeId)) {
+            throw new IllegalArgumentException("recipe not exists");
         }
-        throw new IllegalStateException("No primary key found for table: " + tableName);
     }
 
-    private boolean needsQuoting(String ident) {
-        if (ident == null || ident.isEmpty()) return true;
-        return !ident.matches("[a-z_][a-z0-9_]*");
-    }
-
-    private String quoteIdent(String ident) {
-        return "\"" + ident.replace("\"", "\"\"") + "\"";
-    }
-
-    private String quoteIdentIfNeeded(String ident) {
-        return needsQuoting(ident) ? quoteIdent(ident) : ident;
-    }
-
-    private String qualifyForPg(String name) {
-        String[] parts = name.split("\\.");
-        StringBuilder sb = new StringBuilder();
-        for (int i = 0; i < parts.length; i++) {
-            if (i > 0) sb.append('.');
-            sb.append(quoteIdentIfNeeded(parts[i]));
+    /**
+     * Rewinds the review id sequence to just after the largest remaining id, if a delete asked for it.
+     * Runs at most once per batch of deletes instead of on every delete.
+     */
+    private void applyPendingIdRewind() {
+        if (!idRewindPending.compareAndSet(true, false)) {
+            return;
+        }
+        try {
+            idBlockAllocator.rewind(IdBlockAllocator.Table.REVIEWS);
+        } catch (RuntimeException e) {
+            idRewindPending.set(true);
+            throw e;
         }
-        return sb.toString();
     }
 }
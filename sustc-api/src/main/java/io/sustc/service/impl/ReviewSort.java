@@ -0,0 +1,120 @@
+package io.sustc.service.impl;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.util.Base64;
+import java.util.List;
+
+/**
+ * Sort modes of review listings, shared by the page-number and the cursor-based variants.
+ *
+ * <p>{@code date_desc} orders by {@code DateModified DESC, ReviewId ASC}; {@code likes_desc} puts
+ * {@code LikeCount DESC} in front. All key columns are {@code NOT NULL}, so
+ * {@code (LikeCount, DateModified, ReviewId)} of the last returned row identifies a cursor position.
+ */
+enum ReviewSort {
+
+    DATE_DESC("date_desc"),
+    LIKES_DESC("likes_desc");
+
+    private final String name;
+
+    ReviewSort(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Blank or unknown sort criteria fall back to {@link #DATE_DESC}.
+     */
+    static ReviewSort of(String sort) {
+        String s = (sort == null ? "" : sort.trim().toLowerCase());
+        // 兼容常见误输入
+        switch (s) {
+            case "likes_desc":
+            case "like_desc":
+            case "likes_descs":
+                return LIKES_DESC;
+            default:
+                return DATE_DESC;
+        }
+    }
+
+    String orderBy() {
+        if (this == LIKES_DESC) {
+            return " ORDER BY r.LikeCount DESC, r.DateModified DESC, r.ReviewId ASC";
+        }
+        return " ORDER BY r.DateModified DESC, r.ReviewId ASC";
+    }
+
+    /**
+     * Appends the predicate selecting the rows strictly after the cursor position.
+     *
+     * <p>{@code ReviewId} ascends while the other keys descend, which rules out a row comparison.
+     * The redundant bound on the leading key ({@code <=}) lets the index scan start at the cursor
+     * instead of filtering its way there from the first review of the recipe.
+     */
+    void appendAfter(StringBuilder sql, List<Object> params, Cursor cursor) {
+        String afterDate = "(r.DateModified < ? OR (r.DateModified = ? AND r.ReviewId > ?))";
+        if (this == LIKES_DESC) {
+            sql.append(" AND r.LikeCount <= ?");
+            params.add(cursor.likeCount);
+            sql.append(" AND (r.LikeCount < ? OR (r.LikeCount = ? AND ").append(afterDate).append("))");
+            params.add(cursor.likeCount);
+            params.add(cursor.likeCount);
+        } else {
+            sql.append(" AND r.DateModified <= ?");
+            params.add(cursor.dateModified);
+            sql.append(" AND ").append(afterDate);
+        }
+        params.add(cursor.dateModified);
+        params.add(cursor.dateModified);
+        params.add(cursor.reviewId);
+    }
+
+    /**
+     * Position of the last row of a page.
+     */
+    static final class Cursor {
+
+        final ReviewSort sort;
+
+        final long likeCount;
+
+        final Timestamp dateModified;
+
+        final long reviewId;
+
+        Cursor(ReviewSort sort, long likeCount, Timestamp dateModified, long reviewId) {
+            this.sort = sort;
+            this.likeCount = likeCount;
+            this.dateModified = dateModified;
+            this.reviewId = reviewId;
+        }
+
+        /**
+         * Token layout before Base64: {@code sort|likeCount|dateModified|reviewId}.
+         */
+        String encode() {
+            String raw = sort.name + "|" + likeCount + "|" + dateModified + "|" + reviewId;
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+        }
+
+        /**
+         * @throws IllegalArgumentException if the token is malformed or was issued for another sort mode
+         */
+        static Cursor decode(String token, ReviewSort expected) {
+            try {
+                String raw = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+                String[] parts = raw.split("\\|", -1);
+                if (parts.length != 4 || !expected.name.equals(parts[0])) {
+                    throw new IllegalArgumentException("Cursor does not match sort " + expected.name);
+                }
+                return new Cursor(expected, Long.parseLong(parts[1]), Timestamp.valueOf(parts[2]), Long.parseLong(parts[3]));
+            } catch (IllegalArgumentException e) {
+                throw e;
+            } catch (RuntimeException e) {
+                throw new IllegalArgumentException("Invalid cursor", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package io.sustc.service.impl;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Collection;
+
+/**
+ * Binds Java collections as PostgreSQL array parameters, e.g. for {@code col = ANY(?)} or {@code unnest(?)}.
+ */
+final class SqlArrays {
+
+    private SqlArrays() {
+    }
+
+    static void setLongs(PreparedStatement ps, int index, Collection<Long> values) throws SQLException {
+        ps.setArray(index, ps.getConnection().createArrayOf("bigint", values.toArray()));
+    }
+
+    static void setInts(PreparedStatement ps, int index, Collection<Integer> values) throws SQLException {
+        ps.setArray(index, ps.getConnection().createArrayOf("integer", values.toArray()));
+    }
+
+    static void setStrings(PreparedStatement ps, int index, Collection<String> values) throws SQLException {
+        ps.setArray(index, ps.getConnection().createArrayOf("text", values.toArray()));
+    }
+
+    /**
+     * Binds values of any element type the driver can encode, e.g. {@code timestamp} or {@code float4}.
+     */
+    static void set(PreparedStatement ps, int index, String type, Collection<?> values) throws SQLException {
+        ps.setArray(index, ps.getConnection().createArrayOf(type, values.toArray()));
+    }
+}
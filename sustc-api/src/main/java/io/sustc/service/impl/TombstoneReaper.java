@@ -0,0 +1,288 @@
+package io.sustc.service.impl;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.jdbc.BadSqlGrammarException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Physically removes what deleted recipes and accounts leave behind.
+ *
+ * <p>Deleting a recipe only sets {@code recipes.IsDeleted}; deleting an account sets
+ * {@code users.IsDeleted} and {@code users.PurgePending}. Read paths treat such rows as gone.
+ * A single background thread then purges at most {@code sustc.purge.batch-size} recipes (with their
+ * ingredients, reviews and likes) and as many accounts (with their follow edges) per run, one run
+ * every {@code sustc.purge.interval-ms} while work is left. It is woken by the deletes (and runs once
+ * on startup) and sleeps otherwise, so an application that deletes nothing sends no queries. The
+ * tombstones themselves are the queue, so pending work survives a restart. Recipes and accounts are
+ * purged independently; a failing run is retried with exponential backoff, and a batch that violates
+ * a constraint is retried row by row so that only the offending rows are skipped (until restart).
+ *
+ * <p>With {@code sustc.purge.async=false} the purge runs inline in the deleting transaction instead.
+ */
+@Component
+@Slf4j
+public class TombstoneReaper implements InitializingBean, DisposableBean {
+
+    private static final long MAX_BACKOFF_MILLIS = 60_000;
+
+    @Autowired
+    @SuppressWarnings("SpringJavaInjectionPointsAutowiringInspection")
+    private JdbcTemplate jdbcTemplate;
+
+    /**
+     * Whether every foreign key into {@code recipes} and {@code reviews} cascades, as read from the
+     * catalog; {@code null} until detected. Only then is deleting the recipe rows enough.
+     */
+    private volatile Boolean cascading;
+
+    @Value("${sustc.purge.async:true}")
+    private boolean async;
+
+    @Value("${sustc.purge.batch-size:32}")
+    private int batchSize;
+
+    @Value("${sustc.purge.interval-ms:100}")
+    private long intervalMillis;
+
+    private ScheduledExecutorService executor;
+
+    /**
+     * Set while a run is scheduled and has not started yet.
+     */
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+
+    /**
+     * Consecutive failed runs; only touched by the reaper thread.
+     */
+    private int failures;
+
+    /**
+     * Tombstones whose purge violated a constraint on its own; skipped until the schema changes.
+     */
+    private final Set<Long> stuckRecipes = ConcurrentHashMap.newKeySet();
+
+    private final Set<Long> stuckUsers = ConcurrentHashMap.newKeySet();
+
+    private enum Outcome {DONE, MORE, FAILED}
+
+    @Override
+    public void afterPropertiesSet() {
+        if (!async) {
+            return;
+        }
+        executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "tombstone-reaper");
+            t.setDaemon(true);
+            return t;
+        });
+        // tombstones left by a previous process
+        wake(intervalMillis);
+    }
+
+    @Override
+    public void destroy() throws InterruptedException {
+        if (executor != null) {
+            executor.shutdown();
+            executor.awaitTermination(10, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Called after {@code recipeId} was marked deleted.
+     */
+    public void recipeDeleted(long recipeId) {
+        if (!async) {
+            purgeRecipes(Collections.singletonList(recipeId));
+        } else {
+            TransactionHooks.afterCommit(() -> wake(intervalMillis));
+        }
+    }
+
+    /**
+     * Called after the account {@code userId} was marked deleted and purge-pending.
+     */
+    public void userDeleted(long userId) {
+        if (!async) {
+            purgeUsers(Collections.singletonList(userId));
+        } else {
+            TransactionHooks.afterCommit(() -> wake(intervalMillis));
+        }
+    }
+
+    /**
+     * Deletes the given tombstoned recipes together with their ingredients, reviews and likes.
+     * Ids that are not marked deleted are left alone.
+     */
+    int purgeRecipes(Collection<Long> recipeIds) {
+        if (isCascading()) {
+            return jdbcTemplate.update("DELETE FROM recipes WHERE RecipeId = ANY(?) AND IsDeleted",
+                    ps -> SqlArrays.setLongs(ps, 1, recipeIds));
+        }
+        // One statement: the foreign keys are only checked once all sibling CTEs have run
+        return jdbcTemplate.update("WITH doomed AS (" +
+                        "SELECT RecipeId FROM recipes WHERE RecipeId = ANY(?) AND IsDeleted" +
+                        "), likes AS (DELETE FROM review_likes WHERE ReviewId IN " +
+                        "(SELECT ReviewId FROM reviews WHERE RecipeId IN (SELECT RecipeId FROM doomed))" +
+                        "), revs AS (DELETE FROM reviews WHERE RecipeId IN (SELECT RecipeId FROM doomed)" +
+                        "), parts AS (DELETE FROM recipe_ingredients WHERE RecipeId IN (SELECT RecipeId FROM doomed)" +
+                        ") DELETE FROM recipes WHERE RecipeId IN (SELECT RecipeId FROM doomed)",
+                ps -> SqlArrays.setLongs(ps, 1, recipeIds));
+    }
+
+    /**
+     * Reads the delete rule of the foreign keys into {@code recipes} and {@code reviews} from
+     * {@code pg_constraint} instead of trusting {@code sustc.schema.cascade-delete}: tables created
+     * before the flag changed keep their old rule. Cached until {@link #schemaChanged()}.
+     */
+    boolean isCascading() {
+        Boolean c = cascading;
+        if (c == null) {
+            Map<String, Object> row = jdbcTemplate.queryForMap("SELECT COUNT(*) AS total, " +
+                    "COUNT(*) FILTER (WHERE confdeltype = 'c') AS cascading FROM pg_constraint " +
+                    "WHERE contype = 'f' AND confrelid IN (to_regclass('recipes'), to_regclass('reviews')) " +
+                    "AND conrelid IN (to_regclass('reviews'), to_regclass('recipe_ingredients'), to_regclass('review_likes'))");
+            long total = ((Number) row.get("total")).longValue();
+            c = total > 0 && total == ((Number) row.get("cascading")).longValue();
+            if (total > 0) {
+                // no tables yet: detect again next time
+                cascading = c;
+            }
+        }
+        return c;
+    }
+
+    /**
+     * Forgets what was detected about the schema; call it after tables were created or dropped.
+     */
+    public void schemaChanged() {
+        cascading = null;
+        stuckRecipes.clear();
+        stuckUsers.clear();
+    }
+
+    /**
+     * Deletes every follow edge of the given accounts and clears their purge-pending flag.
+     */
+    int purgeUsers(Collection<Long> userIds) {
+        return jdbcTemplate.update("WITH edges AS (" +
+                        "DELETE FROM user_follows WHERE FollowerId = ANY(?) OR FollowingId = ANY(?)" +
+                        ") UPDATE users SET PurgePending = FALSE WHERE AuthorId = ANY(?) AND PurgePending",
+                ps -> {
+                    SqlArrays.setLongs(ps, 1, userIds);
+                    SqlArrays.setLongs(ps, 2, userIds);
+                    SqlArrays.setLongs(ps, 3, userIds);
+                });
+    }
+
+    /**
+     * Schedules a run after {@code delayMillis} unless one is already scheduled.
+     */
+    private void wake(long delayMillis) {
+        if (executor != null && !executor.isShutdown() && scheduled.compareAndSet(false, true)) {
+            executor.schedule(this::run, delayMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void run() {
+        // deletes committing from now on schedule the next run themselves
+        scheduled.set(false);
+        Outcome recipes = reap("recipes", this::reapRecipes);
+        Outcome users = reap("users", this::reapUsers);
+        if (recipes == Outcome.FAILED || users == Outcome.FAILED) {
+            failures++;
+            long delay = Math.min(intervalMillis << Math.min(failures, 20), MAX_BACKOFF_MILLIS);
+            log.warn("Purge failed {} time(s) in a row, next attempt in {} ms", failures, delay);
+            wake(delay);
+            return;
+        }
+        failures = 0;
+        if (recipes == Outcome.MORE || users == Outcome.MORE) {
+            wake(intervalMillis);
+        }
+    }
+
+    private Outcome reap(String what, Supplier<Boolean> batch) {
+        try {
+            return batch.get() ? Outcome.MORE : Outcome.DONE;
+        } catch (BadSqlGrammarException e) {
+            // tables not created yet, or dropped: nothing to purge until the next delete
+            log.trace("Skipping purge: {}", e.getMessage());
+            return Outcome.DONE;
+        } catch (DataAccessException e) {
+            log.warn("Purge of deleted {} failed: {}", what, e.getMostSpecificCause().getMessage());
+            log.debug("Purge failure", e);
+            return Outcome.FAILED;
+        }
+    }
+
+    /**
+     * @return whether a full batch was found, i.e. work may be left
+     */
+    private boolean reapRecipes() {
+        List<Long> ids = nextBatch("SELECT RecipeId FROM recipes WHERE IsDeleted AND NOT (RecipeId = ANY(?)) LIMIT ?",
+                stuckRecipes);
+        purgeIsolating(ids, this::purgeRecipes, stuckRecipes, "recipe");
+        return ids.size() >= batchSize;
+    }
+
+    /**
+     * @return whether a full batch was found, i.e. work may be left
+     */
+    private boolean reapUsers() {
+        List<Long> ids = nextBatch("SELECT AuthorId FROM users WHERE PurgePending AND NOT (AuthorId = ANY(?)) LIMIT ?",
+                stuckUsers);
+        purgeIsolating(ids, this::purgeUsers, stuckUsers, "user");
+        return ids.size() >= batchSize;
+    }
+
+    private List<Long> nextBatch(String sql, Set<Long> stuck) {
+        return jdbcTemplate.query(sql, ps -> {
+            SqlArrays.setLongs(ps, 1, stuck);
+            ps.setInt(2, batchSize);
+        }, (rs, rowNum) -> rs.getLong(1));
+    }
+
+    /**
+     * Purges {@code ids}; if the batch violates a constraint, purges them one at a time and adds
+     * those that still fail to {@code stuck}. Other failures propagate so the run backs off.
+     */
+    private void purgeIsolating(List<Long> ids, Function<Collection<Long>, Integer> purge, Set<Long> stuck, String what) {
+        if (ids.isEmpty()) {
+            return;
+        }
+        try {
+            purge.apply(ids);
+            log.debug("Purged {} deleted {}s", ids.size(), what);
+        } catch (DataIntegrityViolationException e) {
+            if (ids.size() == 1) {
+                stuck.add(ids.get(0));
+                log.warn("Skipping deleted {} {} that cannot be purged: {}", what, ids.get(0),
+                        e.getMostSpecificCause().getMessage());
+                return;
+            }
+            for (Long id : ids) {
+                purgeIsolating(Collections.singletonList(id), purge, stuck, what);
+            }
+        }
+    }
+}
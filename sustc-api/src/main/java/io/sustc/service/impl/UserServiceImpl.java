@@ -25,6 +25,12 @@ public class UserServiceImpl implements UserService {
     @SuppressWarnings("SpringJavaInjectionPointsAutowiringInspection")
     private JdbcTemplate jdbcTemplate;
 
+    @Autowired
+    private TombstoneReaper tombstoneReaper;
+
+    @Autowired
+    private IdBlockAllocator idBlockAllocator;
+
     @Override
     public long register(RegisterUserReq req) {
         if (req == null || req.getName() == null || req.getName().isEmpty() ||
@@ -53,9 +59,10 @@ public class UserServiceImpl implements UserService {
 
         String genderStr = req.getGender() == RegisterUserReq.Gender.MALE ? "Male" : "Female";
 
-        String sql = "INSERT INTO users (AuthorName, Gender, Age, Password, IsDeleted) VALUES (?, ?, ?, ?, ?) RETURNING AuthorId";
-        Long newId = jdbcTemplate.queryForObject(sql, Long.class, req.getName(), genderStr, age, req.getPassword(), false);
-        return newId != null ? newId : -1;
+        long newId = idBlockAllocator.next(IdBlockAllocator.Table.USERS);
+        jdbcTemplate.update("INSERT INTO users (AuthorId, AuthorName, Gender, Age, Password, IsDeleted) VALUES (?, ?, ?, ?, ?, ?)",
+                newId, req.getName(), genderStr, age, req.getPassword(), false);
+        return newId;
     }
 
     private LocalDate parseDate(String dateStr) {
@@ -108,8 +115,9 @@ public class UserServiceImpl implements UserService {
             throw new IllegalArgumentException("User not found");
         }
 
-        jdbcTemplate.update("UPDATE users SET IsDeleted = true WHERE AuthorId = ?", userId);
-        jdbcTemplate.update("DELETE FROM user_follows WHERE FollowerId = ? OR FollowingId = ?", userId, userId);
+        // Follow edges of a purge-pending account are hidden from readers until the reaper deletes them
+        jdbcTemplate.update("UPDATE users SET IsDeleted = true, PurgePending = true WHERE AuthorId = ?", userId);
+        tombstoneReaper.userDeleted(userId);
         return true;
     }
 
@@ -144,28 +152,20 @@ public class UserServiceImpl implements UserService {
     public UserRecord getById(long userId) {
         try {
             UserRecord record = jdbcTemplate.queryForObject("SELECT * FROM users WHERE AuthorId = ? AND IsDeleted = false",
-                (rs, rowNum) -> {
-                    UserRecord u = new UserRecord();
-                    u.setAuthorId(rs.getLong("AuthorId"));
-                    u.setAuthorName(rs.getString("AuthorName"));
-                    u.setGender(rs.getString("Gender"));
-                    u.setAge(rs.getInt("Age"));
-                    u.setPassword(rs.getString("Password"));
-                    u.setDeleted(rs.getBoolean("IsDeleted"));
-                    return u;
-                }, userId);
+                (rs, rowNum) -> mapUser(rs), userId);
 
             if (record != null) {
-                Integer followers = jdbcTemplate.queryForObject("SELECT COUNT(*) FROM user_follows WHERE FollowingId = ?", Integer.class, userId);
-                Integer following = jdbcTemplate.queryForObject("SELECT COUNT(*) FROM user_follows WHERE FollowerId = ?", Integer.class, userId);
-                record.setFollowers(followers != null ? followers : 0);
-                record.setFollowing(following != null ? following : 0);
-
-                List<Long> followerList = jdbcTemplate.queryForList("SELECT FollowerId FROM user_follows WHERE FollowingId = ?", Long.class, userId);
+                List<Long> followerList = jdbcTemplate.queryForList(
+                        "SELECT f.FollowerId FROM user_follows f JOIN users u ON u.AuthorId = f.FollowerId " +
+                                "WHERE f.FollowingId = ? AND NOT u.PurgePending", Long.class, userId);
                 record.setFollowerUsers(followerList.stream().mapToLong(Long::longValue).toArray());
+                record.setFollowers(followerList.size());
 
-                List<Long> followingList = jdbcTemplate.queryForList("SELECT FollowingId FROM user_follows WHERE FollowerId = ?", Long.class, userId);
+                List<Long> followingList = jdbcTemplate.queryForList(
+                        "SELECT f.FollowingId FROM user_follows f JOIN users u ON u.AuthorId = f.FollowingId " +
+                                "WHERE f.FollowerId = ? AND NOT u.PurgePending", Long.class, userId);
                 record.setFollowingUsers(followingList.stream().mapToLong(Long::longValue).toArray());
+                record.setFollowing(followingList.size());
             }
             return record;
         } catch (EmptyResultDataAccessException e) {
@@ -173,6 +173,66 @@ public class UserServiceImpl implements UserService {
         }
     }
 
+    @Override
+    public List<UserRecord> getByIds(List<Long> userIds) {
+        if (userIds == null) {
+            throw new IllegalArgumentException("userIds cannot be null");
+        }
+        Set<Long> ids = new LinkedHashSet<>();
+        for (Long id : userIds) {
+            if (id != null) ids.add(id);
+        }
+
+        Map<Long, UserRecord> users = new HashMap<>();
+        if (!ids.isEmpty()) {
+            jdbcTemplate.query("SELECT * FROM users WHERE AuthorId = ANY(?) AND IsDeleted = false",
+                    ps -> SqlArrays.setLongs(ps, 1, ids),
+                    rs -> {
+                        UserRecord u = mapUser(rs);
+                        users.put(u.getAuthorId(), u);
+                    });
+        }
+
+        if (!users.isEmpty()) {
+            // One pass over the edges touching any requested user fills both directions
+            Map<Long, List<Long>> followers = new HashMap<>();
+            Map<Long, List<Long>> following = new HashMap<>();
+            jdbcTemplate.query("SELECT f.FollowerId, f.FollowingId FROM user_follows f " +
+                            "JOIN users a ON a.AuthorId = f.FollowerId JOIN users b ON b.AuthorId = f.FollowingId " +
+                            "WHERE (f.FollowingId = ANY(?) OR f.FollowerId = ANY(?)) AND NOT a.PurgePending AND NOT b.PurgePending",
+                    ps -> {
+                        SqlArrays.setLongs(ps, 1, users.keySet());
+                        SqlArrays.setLongs(ps, 2, users.keySet());
+                    },
+                    rs -> {
+                        long follower = rs.getLong(1);
+                        long followee = rs.getLong(2);
+                        if (users.containsKey(followee)) {
+                            followers.computeIfAbsent(followee, k -> new ArrayList<>()).add(follower);
+                        }
+                        if (users.containsKey(follower)) {
+                            following.computeIfAbsent(follower, k -> new ArrayList<>()).add(followee);
+                        }
+                    });
+            for (UserRecord u : users.values()) {
+                long[] followerUsers = followers.getOrDefault(u.getAuthorId(), Collections.emptyList())
+                        .stream().mapToLong(Long::longValue).toArray();
+                long[] followingUsers = following.getOrDefault(u.getAuthorId(), Collections.emptyList())
+                        .stream().mapToLong(Long::longValue).toArray();
+                u.setFollowerUsers(followerUsers);
+                u.setFollowingUsers(followingUsers);
+                u.setFollowers(followerUsers.length);
+                u.setFollowing(followingUsers.length);
+            }
+        }
+
+        List<UserRecord> result = new ArrayList<>(userIds.size());
+        for (Long id : userIds) {
+            result.add(id == null ? null : users.get(id));
+        }
+        return result;
+    }
+
     @Override
     public void updateProfile(AuthInfo auth, String gender, Integer age) {
         if (!validateAuth(auth)) {
@@ -217,7 +277,7 @@ public class UserServiceImpl implements UserService {
                 "FROM recipes r " +
                 "JOIN users u ON r.AuthorId = u.AuthorId " +
                 "JOIN user_follows uf ON r.AuthorId = uf.FollowingId " +
-                "WHERE uf.FollowerId = ?");
+                "WHERE uf.FollowerId = ? AND NOT u.PurgePending AND NOT r.IsDeleted");
 
         List<Object> params = new ArrayList<>();
         params.add(auth.getAuthorId());
@@ -252,9 +312,11 @@ public class UserServiceImpl implements UserService {
     @Override
     public Map<String, Object> getUserWithHighestFollowRatio() {
         String sql = "WITH FollowerCounts AS (" +
-                "    SELECT FollowingId as AuthorId, COUNT(*) as cnt FROM user_follows GROUP BY FollowingId" +
+                "    SELECT f.FollowingId as AuthorId, COUNT(*) as cnt FROM user_follows f " +
+                "    JOIN users x ON x.AuthorId = f.FollowerId WHERE NOT x.PurgePending GROUP BY f.FollowingId" +
                 "), FollowingCounts AS (" +
-                "    SELECT FollowerId as AuthorId, COUNT(*) as cnt FROM user_follows GROUP BY FollowerId" +
+                "    SELECT f.FollowerId as AuthorId, COUNT(*) as cnt FROM user_follows f " +
+                "    JOIN users x ON x.AuthorId = f.FollowingId WHERE NOT x.PurgePending GROUP BY f.FollowerId" +
                 ") " +
                 "SELECT u.AuthorId, u.AuthorName, " +
                 "CAST(COALESCE(fc.cnt, 0) AS FLOAT) / fgc.cnt as ratio " +
@@ -278,6 +340,17 @@ public class UserServiceImpl implements UserService {
         }
     }
 
+    private UserRecord mapUser(ResultSet rs) throws SQLException {
+        UserRecord u = new UserRecord();
+        u.setAuthorId(rs.getLong("AuthorId"));
+        u.setAuthorName(rs.getString("AuthorName"));
+        u.setGender(rs.getString("Gender"));
+        u.setAge(rs.getInt("Age"));
+        u.setPassword(rs.getString("Password"));
+        u.setDeleted(rs.getBoolean("IsDeleted"));
+        return u;
+    }
+
     private boolean validateAuth(AuthInfo auth) {
         return login(auth) != -1;
     }
@@ -7,8 +7,11 @@ import lombok.SneakyThrows;
 import lombok.extern.slf4j.Slf4j;
 import lombok.val;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.env.Environment;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Service;
 
+import javax.sql.DataSource;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.*;
@@ -38,6 +41,33 @@ public class BenchmarkService {
     @Autowired
     private ThreadSafeFury fury;
 
+    @Autowired
+    private Environment environment;
+
+    @Autowired
+    private StatementCounter statementCounter;
+
+    @Autowired
+    private DataSource dataSource;
+
+    private static final int DELETE_BENCH_USERS = 20;
+
+    private static final int DELETE_BENCH_RECIPES = 4;
+
+    private static final int DELETE_BENCH_REVIEWS = 1000;
+
+    private static final int DELETE_BENCH_LIKES = 5;
+
+    private static final long DELETE_BENCH_PURGE_TIMEOUT_MS = 20_000;
+
+    private static final int LIST_BENCH_USERS = 20;
+
+    private static final int LIST_BENCH_REVIEWS = 200;
+
+    private static final int LIST_BENCH_PAGE_SIZE = 50;
+
+    private static final int LIST_BENCH_ROUNDS = 100;
+
 //    private final Map<Long, String> sentDanmu = new ConcurrentHashMap<>();
 //
 //    private final Set<String> postedVideo = new ConcurrentSkipListSet<>();
@@ -761,6 +791,165 @@ public class BenchmarkService {
         return new BenchmarkResult(pass, endTime - startTime);
     }
 
+    @SneakyThrows
+    @BenchmarkStep(order = 24, timeout = 30, description = "Benchmark RecipeService#deleteRecipe(long, AuthInfo) on heavily reviewed recipes")
+    public BenchmarkResult deleteHeavyRecipeBenchmark() {
+        // Compare the delete paths by running once per value of sustc.schema.cascade-delete. The
+        // timing covers the physical purge too: with sustc.purge.async the delete only sets a flag
+        // and the rows go away on the reaper thread, so the step waits until they are gone.
+        val jdbc = new JdbcTemplate(dataSource);
+
+        val users = new ArrayList<AuthInfo>();
+        val prefix = "bench_delete_" + System.currentTimeMillis() + "_";
+        for (int i = 0; i < DELETE_BENCH_USERS; i++) {
+            val req = RegisterUserReq.builder()
+                    .name(prefix + i)
+                    .password("bench")
+                    .gender(RegisterUserReq.Gender.MALE)
+                    .birthday("2000-01-01")
+                    .build();
+            users.add(new AuthInfo(userService.register(req), "bench"));
+        }
+        val owner = users.get(0);
+
+        val recipeIds = new ArrayList<Long>();
+        long likes = 0;
+        for (int r = 0; r < DELETE_BENCH_RECIPES; r++) {
+            val recipe = RecipeRecord.builder()
+                    .name(prefix + "recipe_" + r)
+                    .recipeIngredientParts(new String[]{"salt", "eggs", "flour", "milk"})
+                    .build();
+            val recipeId = recipeService.createRecipe(recipe, owner);
+            recipeIds.add(recipeId);
+            for (int i = 0; i < DELETE_BENCH_REVIEWS; i++) {
+                // likers are the users following the author in the list, never the author itself
+                val authorIndex = 1 + i % (users.size() - 1);
+                val reviewId = reviewService.addReview(users.get(authorIndex), recipeId, 1 + i % 5, "review " + i);
+                for (int l = 1; l <= DELETE_BENCH_LIKES; l++) {
+                    reviewService.likeReview(users.get((authorIndex + l) % users.size()), reviewId);
+                    likes++;
+                }
+            }
+        }
+        log.info("Prepared {} recipes with {} reviews and {} like calls", recipeIds.size(),
+                recipeIds.size() * DELETE_BENCH_REVIEWS, likes);
+        // the rule the tables were actually created with, not the flag
+        val cascading = jdbc.queryForObject("SELECT COUNT(*) > 0 AND bool_and(confdeltype = 'c') " +
+                "FROM pg_constraint WHERE contype = 'f' AND confrelid IN (to_regclass('recipes'), to_regclass('reviews'))",
+                Boolean.class);
+        val async = environment.getProperty("sustc.purge.async", Boolean.class, true);
+        log.info("Recipe delete path: {}, purge {}", Boolean.TRUE.equals(cascading) ? "ON DELETE CASCADE" : "CTE chain",
+                async ? "on the reaper thread" : "inline");
+
+        val failed = new HashSet<Long>();
+        val startTime = System.currentTimeMillis();
+        for (val recipeId : recipeIds) {
+            try {
+                recipeService.deleteRecipe(recipeId, owner);
+            } catch (Exception e) {
+                log.error("Exception thrown for {}", recipeId, e);
+                failed.add(recipeId);
+            }
+        }
+        val deleted = System.currentTimeMillis();
+        val ids = recipeIds.toArray(new Long[0]);
+        long left;
+        do {
+            left = jdbc.query("SELECT COUNT(*) FROM recipes WHERE RecipeId = ANY(?)",
+                    ps -> ps.setArray(1, ps.getConnection().createArrayOf("bigint", ids)),
+                    rs -> rs.next() ? rs.getLong(1) : 0L);
+            if (left > failed.size()) {
+                Thread.sleep(10);
+            }
+        } while (left > failed.size() && System.currentTimeMillis() - deleted < DELETE_BENCH_PURGE_TIMEOUT_MS);
+        val endTime = System.currentTimeMillis();
+        log.info("Deletes took {} ms, purge finished {} ms later ({} recipe rows left)", deleted - startTime,
+                endTime - deleted, left);
+
+        val pass = new AtomicLong();
+        recipeIds.forEach(id -> {
+            if (!failed.contains(id) && recipeService.getRecipeById(id) == null) {
+                pass.incrementAndGet();
+            } else {
+                log.debug("Recipe {} still exists after deletion", id);
+            }
+        });
+        return new BenchmarkResult(pass, endTime - startTime);
+    }
+
+    @BenchmarkStep(order = 25, timeout = 30, description = "Benchmark ReviewService#listByRecipe(long, int, int, String) round trips per page")
+    public BenchmarkResult listByRecipeRoundTripBenchmark() {
+        val users = new ArrayList<AuthInfo>();
+        val prefix = "bench_list_" + System.currentTimeMillis() + "_";
+        for (int i = 0; i < LIST_BENCH_USERS; i++) {
+            val req = RegisterUserReq.builder()
+                    .name(prefix + i)
+                    .password("bench")
+                    .gender(RegisterUserReq.Gender.FEMALE)
+                    .birthday("2000-01-01")
+                    .build();
+            users.add(new AuthInfo(userService.register(req), "bench"));
+        }
+        val recipe = RecipeRecord.builder()
+                .name(prefix + "recipe")
+                .recipeIngredientParts(new String[]{"salt", "eggs"})
+                .build();
+        val recipeId = recipeService.createRecipe(recipe, users.get(0));
+        val expectedLikes = new HashMap<Long, Integer>();
+        for (int i = 0; i < LIST_BENCH_REVIEWS; i++) {
+            val authorIndex = 1 + i % (users.size() - 1);
+            val reviewId = reviewService.addReview(users.get(authorIndex), recipeId, 1 + i % 5, "review " + i);
+            // 0 to 4 likes, so some reviews have none
+            val likes = i % 5;
+            for (int l = 1; l <= likes; l++) {
+                reviewService.likeReview(users.get((authorIndex + l) % users.size()), reviewId);
+            }
+            expectedLikes.put(reviewId, likes);
+        }
+        val pages = LIST_BENCH_REVIEWS / LIST_BENCH_PAGE_SIZE;
+
+        val pass = new AtomicLong();
+        // With sustc.cache.review-page.enabled, repeated reads of page 1 are answered from memory
+        // without a statement. Such rounds are reported apart so they do not dilute the uncached numbers.
+        long cachedRounds = 0, cachedNanos = 0, uncachedNanos = 0, uncachedStatements = 0;
+        val startTime = System.currentTimeMillis();
+        for (int round = 0; round < LIST_BENCH_ROUNDS; round++) {
+            val page = 1 + round % pages;
+            val statementsBefore = statementCounter.get();
+            val roundStart = System.nanoTime();
+            try {
+                val res = reviewService.listByRecipe(recipeId, page, LIST_BENCH_PAGE_SIZE, "date_desc");
+                val ok = res.getItems().size() == LIST_BENCH_PAGE_SIZE && res.getItems().stream()
+                        .allMatch(it -> Objects.equals(expectedLikes.get(it.getReviewId()), it.getLikes().length));
+                if (ok) {
+                    pass.incrementAndGet();
+                } else {
+                    log.debug("Wrong page {} of recipe {}: {}", page, recipeId, res);
+                }
+            } catch (Exception e) {
+                log.error("Exception thrown for page {} of recipe {}", page, recipeId, e);
+            }
+            val roundNanos = System.nanoTime() - roundStart;
+            val statements = statementCounter.get() - statementsBefore;
+            if (statements == 0) {
+                cachedRounds++;
+                cachedNanos += roundNanos;
+            } else {
+                uncachedStatements += statements;
+                uncachedNanos += roundNanos;
+            }
+        }
+        val endTime = System.currentTimeMillis();
+        val uncachedRounds = LIST_BENCH_ROUNDS - cachedRounds;
+        log.info("listByRecipe uncached: {} rounds, {} statements and {} ms per page of {} reviews", uncachedRounds,
+                uncachedRounds == 0 ? 0 : (double) uncachedStatements / uncachedRounds,
+                uncachedRounds == 0 ? 0 : uncachedNanos / 1e6 / uncachedRounds, LIST_BENCH_PAGE_SIZE);
+        log.info("listByRecipe cached: {} rounds, {} ms per page", cachedRounds,
+                cachedRounds == 0 ? 0 : cachedNanos / 1e6 / cachedRounds);
+
+        return new BenchmarkResult(pass, endTime - startTime);
+    }
+
     @SneakyThrows
     @SuppressWarnings("unchecked")
     private <T> T deserialize(String... path) {